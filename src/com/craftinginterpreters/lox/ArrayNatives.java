@@ -0,0 +1,43 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+class ArrayNatives extends NativeModule {
+    private static final int ARRAY = 0;
+    private static final int ARRAY_PUSH = 1;
+    private static final int ARRAY_GET = 2;
+    private static final int ARRAY_SET = 3;
+    private static final int ARRAY_LENGTH = 4;
+
+    @Override
+    void install(Environment globals) {
+        define(globals, "array", 0, ARRAY);
+        define(globals, "arrayPush", 2, ARRAY_PUSH);
+        define(globals, "arrayGet", 2, ARRAY_GET);
+        define(globals, "arraySet", 3, ARRAY_SET);
+        define(globals, "arrayLength", 1, ARRAY_LENGTH);
+    }
+
+    @Override
+    Object call(int id, Interpreter interpreter, List<Object> args) {
+        return switch (id) {
+            case ARRAY -> new LoxArray();
+            case ARRAY_PUSH -> {
+                checkArray(args.get(0), "arrayPush").add(args.get(1));
+                yield args.get(1);
+            }
+            case ARRAY_GET -> checkArray(args.get(0), "arrayGet").get(integer(args, 1, "arrayGet"));
+            case ARRAY_SET -> {
+                checkArray(args.get(0), "arraySet").set(integer(args, 1, "arraySet"), args.get(2));
+                yield args.get(2);
+            }
+            case ARRAY_LENGTH -> (double) checkArray(args.get(0), "arrayLength").size();
+            default -> throw new IllegalArgumentException("Unknown native " + id);
+        };
+    }
+
+    static LoxArray checkArray(Object value, String function) {
+        if (value instanceof LoxArray array) return array;
+        throw new NativeError(function + " expects an array.");
+    }
+}
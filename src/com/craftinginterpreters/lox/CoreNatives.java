@@ -0,0 +1,30 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/**
+ * Clocks. `clock()` keeps its wall-clock seconds; `clockNanos()` reads the
+ * monotonic timer relative to interpreter start-up, which keeps the value small
+ * enough to be exact as a Lox number.
+ */
+class CoreNatives extends NativeModule {
+    private static final int CLOCK = 0;
+    private static final int CLOCK_NANOS = 1;
+
+    private static final long START = System.nanoTime();
+
+    @Override
+    void install(Environment globals) {
+        define(globals, "clock", 0, CLOCK);
+        define(globals, "clockNanos", 0, CLOCK_NANOS);
+    }
+
+    @Override
+    Object call(int id, Interpreter interpreter, List<Object> args) {
+        return switch (id) {
+            case CLOCK -> (double) System.currentTimeMillis() / 1000.0;
+            case CLOCK_NANOS -> (double) (System.nanoTime() - START);
+            default -> throw new IllegalArgumentException("Unknown native " + id);
+        };
+    }
+}
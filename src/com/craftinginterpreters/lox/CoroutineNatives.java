@@ -0,0 +1,114 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/**
+ * Coroutines, channels and generators:
+ * <pre>
+ *     var results = channel(0);
+ *     fun worker() { send(results, poll()); }
+ *     var task = spawn(worker);
+ *     print receive(results);
+ *     join(task);
+ *
+ *     fun numbers(emit) { for (var i = 0; i < 3; i = i + 1) emit(i); }
+ *     var g = generator(numbers);
+ *     while (hasNext(g)) print next(g);
+ * </pre>
+ * Only one coroutine runs Lox code at a time (see {@link Scheduler}), so
+ * globals need no locking. The main script keeps running until it blocks or
+ * yields, and coroutines that are still alive when it finishes are abandoned.
+ */
+class CoroutineNatives extends NativeModule {
+    private static final int SPAWN = 0;
+    private static final int JOIN = 1;
+    private static final int YIELD = 2;
+    private static final int SLEEP = 3;
+    private static final int CHANNEL = 4;
+    private static final int SEND = 5;
+    private static final int RECEIVE = 6;
+    private static final int CLOSE = 7;
+    private static final int GENERATOR = 8;
+    private static final int HAS_NEXT = 9;
+    private static final int NEXT = 10;
+
+    @Override
+    void install(Environment globals) {
+        define(globals, "spawn", 1, SPAWN);
+        define(globals, "join", 1, JOIN);
+        define(globals, "yield", 0, YIELD);
+        define(globals, "sleep", 1, SLEEP);
+        define(globals, "channel", 1, CHANNEL);
+        define(globals, "send", 2, SEND);
+        define(globals, "receive", 1, RECEIVE);
+        define(globals, "close", 1, CLOSE);
+        define(globals, "generator", 1, GENERATOR);
+        define(globals, "hasNext", 1, HAS_NEXT);
+        define(globals, "next", 1, NEXT);
+    }
+
+    @Override
+    Object call(int id, Interpreter interpreter, List<Object> args) {
+        if (interpreter.isParallelTask()) {
+            throw new NativeError("Coroutines can't be used inside a parallel task.");
+        }
+        return switch (id) {
+            case SPAWN -> new LoxCoroutine(interpreter.forCoroutine(), function(args.get(0), 0, "spawn"), List.of(),
+                    interpreter.callLine(), null);
+            case JOIN -> {
+                if (!(args.get(0) instanceof LoxCoroutine coroutine)) throw new NativeError("join expects a coroutine.");
+                yield coroutine.join();
+            }
+            case YIELD -> {
+                Scheduler.yieldToOthers();
+                yield null;
+            }
+            case SLEEP -> {
+                long millis = (long) Math.max(0, number(args, 0, "sleep"));
+                Scheduler.await(() -> {
+                    Thread.sleep(millis);
+                    return null;
+                });
+                yield null;
+            }
+            case CHANNEL -> {
+                int capacity = integer(args, 0, "channel");
+                if (capacity < 0) throw new NativeError("channel expects a non-negative capacity.");
+                yield new LoxChannel(capacity);
+            }
+            case SEND -> {
+                channel(args.get(0), "send").send(args.get(1));
+                yield args.get(1);
+            }
+            case RECEIVE -> channel(args.get(0), "receive").receive();
+            case CLOSE -> {
+                channel(args.get(0), "close").close();
+                yield null;
+            }
+            case GENERATOR -> new LoxGenerator(interpreter.forCoroutine(), function(args.get(0), 1, "generator"),
+                    interpreter.callLine());
+            case HAS_NEXT -> generator(args.get(0), "hasNext").hasNext();
+            case NEXT -> generator(args.get(0), "next").next();
+            default -> throw new IllegalArgumentException("Unknown native " + id);
+        };
+    }
+
+    /**
+     * Only Lox functions can run as coroutines: a native has no call site to
+     * blame its errors on once it runs on a thread of its own.
+     */
+    private static LoxFunction function(Object value, int arity, String name) {
+        if (value instanceof LoxFunction function && function.arity() == arity) return function;
+        throw new NativeError(name + " expects a function taking " + arity + " argument" + (arity == 1 ? "." : "s."));
+    }
+
+    private static LoxChannel channel(Object value, String name) {
+        if (value instanceof LoxChannel channel) return channel;
+        throw new NativeError(name + " expects a channel.");
+    }
+
+    private static LoxGenerator generator(Object value, String name) {
+        if (value instanceof LoxGenerator generator) return generator;
+        throw new NativeError(name + " expects a generator.");
+    }
+}
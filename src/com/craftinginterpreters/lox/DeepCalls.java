@@ -0,0 +1,66 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Threads for calls nested deeper than the thread making them has stack for.
+ * Coroutines run on virtual threads and parallel tasks on fork-join workers,
+ * whose stacks the JVM sizes from -Xss rather than --max-depth. Once such a
+ * thread's stack is full, the next call carries on here, on a thread with as
+ * much stack as the main script's, while the thread that made it waits. The
+ * scheduler's turn goes along with the call, so other coroutines don't get
+ * to run in the meantime. Threads are kept for a while after their call
+ * returns, since a loop calling just past the limit makes many such calls.
+ */
+final class DeepCalls {
+    private ExecutorService threads;
+
+    /**
+     * Runs {@code call} on a thread with room for {@code maxDepth} nested
+     * calls, rethrowing whatever it throws.
+     */
+    Object run(int maxDepth, Callable<Object> call) {
+        int turn = Scheduler.handOff();
+        Future<Object> result = threads(maxDepth).submit(() -> {
+            Scheduler.takeOver(turn);
+            try {
+                return call.call();
+            } finally {
+                Scheduler.handOff();
+            }
+        });
+        boolean interrupted = false;
+        try {
+            // The call is using the interpreter's state, so it has to be waited out.
+            while (true) {
+                try {
+                    return result.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            Scheduler.takeOver(turn);
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized ExecutorService threads(int maxDepth) {
+        if (threads == null) {
+            threads = Executors.newCachedThreadPool(Thread.ofPlatform()
+                    .name("lox-deep-call-", 0)
+                    .daemon()
+                    .stackSize(Interpreter.stackSize(maxDepth))
+                    .factory());
+        }
+        return threads;
+    }
+}
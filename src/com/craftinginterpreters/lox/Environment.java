@@ -4,8 +4,33 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class Environment {
+    // Bumped whenever parallel tasks start, see startParallelSection().
+    private static volatile long currentGeneration;
+
+    /**
+     * A variable shared between the scope that declares it and the closures
+     * that capture it. The scope's map holds the box in place of the value,
+     * and reads and writes through either one go to the box. A closure can
+     * capture a name before its declaration has run, such as a local function
+     * calling itself; until then the box is {@link #UNSET} and lookups pass
+     * over it as if the name weren't there.
+     */
+    static final class Box {
+        static final Object UNSET = new Object();
+
+        Object value;
+        // The generation of the declaring scope, which parallel tasks check before assigning.
+        final long generation;
+
+        Box(Object value, long generation) {
+            this.value = value;
+            this.generation = generation;
+        }
+    }
+
     private final Map<String, Object> variables = new HashMap<>();
-    private final Environment enclosing;
+    private Environment enclosing;
+    long generation = currentGeneration;
 
     Environment() {
         enclosing = null;
@@ -15,28 +40,152 @@ public class Environment {
         this.enclosing = enclosing;
     }
 
+    /**
+     * Empties a call frame returned to an interpreter's pool, so that it
+     * doesn't keep the values it held alive.
+     */
+    void clear() {
+        variables.clear();
+        enclosing = null;
+    }
+
+    /**
+     * Readies a pooled frame for another call, as if it were newly created.
+     */
+    void reuse(Environment enclosing) {
+        this.enclosing = enclosing;
+        generation = currentGeneration;
+    }
+
+    /**
+     * Marks every environment created so far as shared by the parallel tasks
+     * about to start. Tasks pass the returned generation to
+     * {@link #assignInTask} so that they can only assign to environments they
+     * created themselves.
+     */
+    static synchronized long startParallelSection() {
+        return ++currentGeneration;
+    }
+
     void define(String name, Object value) {
-        this.variables.put(name, value);
+        Object previous = this.variables.put(name, value);
+        if (previous instanceof Box box) {
+            variables.put(name, box);
+            box.value = value;
+        }
+    }
+
+    /**
+     * Shares a variable with {@code closure}, boxing it where it's declared
+     * unless it already is. The variable is declared {@code distance} scopes
+     * out from this one, or at -1, it was captured by the function this scope
+     * belongs to and is found by name.
+     */
+    void capture(String name, int distance, Environment closure) {
+        Environment declaring = this;
+        for (int i = 0; i < distance && declaring != null; i++) declaring = declaring.enclosing;
+        if (distance < 0 || declaring == null || declaring instanceof GlobalEnvironment) {
+            declaring = this;
+            while (!declaring.variables.containsKey(name) && !(declaring.enclosing instanceof GlobalEnvironment)
+                    && declaring.enclosing != null) {
+                declaring = declaring.enclosing;
+            }
+        }
+        Box box;
+        if (!declaring.variables.containsKey(name)) {
+            box = new Box(Box.UNSET, declaring.generation);
+            declaring.variables.put(name, box);
+        } else if (declaring.variables.get(name) instanceof Box existing) {
+            box = existing;
+        } else {
+            box = new Box(declaring.variables.get(name), declaring.generation);
+            declaring.variables.put(name, box);
+        }
+        closure.variables.put(name, box);
     }
 
     void assign(Token name, Object value) {
-        if (this.variables.containsKey(name.lexeme)) {
-            variables.put(name.lexeme, value);
+        assign(name.lexeme, value, name.line);
+    }
+
+    /**
+     * Assigns to a variable in this or an enclosing scope, reporting an
+     * undefined one at {@code line}.
+     */
+    void assign(String name, Object value, int line) {
+        if (this.variables.containsKey(name)) {
+            if (!(variables.get(name) instanceof Box box)) {
+                variables.put(name, value);
+                return;
+            }
+            if (box.value != Box.UNSET) {
+                box.value = value;
+                return;
+            }
+        }
+        if (enclosing != null) {
+            enclosing.assign(name, value, line);
             return;
         }
+        throw new RuntimeError(line, "Undefined variable '" + name + "'.");
+    }
+
+    void assignInTask(Token name, Object value, long taskGeneration) {
+        assignInTask(name.lexeme, value, taskGeneration, name.line);
+    }
+
+    void assignInTask(String name, Object value, long taskGeneration, int line) {
+        if (this.variables.containsKey(name)) {
+            Object current = variables.get(name);
+            Box box = current instanceof Box b ? b : null;
+            if (box == null || box.value != Box.UNSET) {
+                if ((box != null ? box.generation : generation) < taskGeneration) {
+                    throw new RuntimeError(line,
+                            "Cannot assign to captured variable '" + name + "' inside a parallel task.");
+                }
+                if (box != null) {
+                    box.value = value;
+                } else {
+                    variables.put(name, value);
+                }
+                return;
+            }
+        }
         if (enclosing != null) {
-            enclosing.assign(name, value);
+            enclosing.assignInTask(name, value, taskGeneration, line);
             return;
         }
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        throw new RuntimeError(line, "Undefined variable '" + name + "'.");
+    }
+
+    /**
+     * Looks a name up through the enclosing scopes, returning null if it isn't defined.
+     */
+    Object find(String name) {
+        if (this.variables.containsKey(name)) {
+            Object value = variables.get(name);
+            if (!(value instanceof Box box)) return value;
+            if (box.value != Box.UNSET) return box.value;
+        }
+        return enclosing != null ? enclosing.find(name) : null;
     }
 
     Object get(Token name) {
-        if (this.variables.containsKey(name.lexeme)) {
-            return variables.get(name.lexeme);
+        return get(name.lexeme, name.line);
+    }
+
+    /**
+     * Reads a variable from this or an enclosing scope, reporting an
+     * undefined one at {@code line}.
+     */
+    Object get(String name, int line) {
+        if (this.variables.containsKey(name)) {
+            Object value = variables.get(name);
+            if (!(value instanceof Box box)) return value;
+            if (box.value != Box.UNSET) return box.value;
         }
-        if (enclosing != null) return this.enclosing.get(name);
+        if (enclosing != null) return this.enclosing.get(name, line);
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        throw new RuntimeError(line, "Undefined variable '" + name + "'.");
     }
 }
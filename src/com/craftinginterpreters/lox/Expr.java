@@ -15,6 +15,13 @@ public abstract class Expr {
         T visitAssignment(Assign assign);
         T visitLogicalOperator(Logical logical);
         T visitCallExpr(Call call);
+        T visitGetExpr(Get get);
+        T visitSetExpr(Set set);
+        T visitThisExpr(This thisExpr);
+        T visitSuperExpr(Super superExpr);
+        T visitFusedBinary(FusedBinary fused);
+        T visitCompoundAssign(CompoundAssign compound);
+        T visitProbe(Probe probe);
     }
 
     public static class Unary extends Expr {
@@ -36,6 +43,12 @@ public abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        // Set by TypeInference if both operands should be numbers.
+        boolean numeric;
+        // What its operands have been when it took the general path, for profiles.
+        static final byte NUMBERS = 1;
+        static final byte MIXED = 2;
+        byte observed;
 
         Binary(Expr left, Token operator, Expr right) {
             this.left = left;
@@ -43,6 +56,10 @@ public abstract class Expr {
             this.right = right;
         }
 
+        void observe(Object left, Object right) {
+            if (observed != MIXED) observed = left instanceof Double && right instanceof Double ? NUMBERS : MIXED;
+        }
+
         @Override
         <T> T accept(Visitor<T> visitor) {
             return visitor.visitBinary(this);
@@ -98,6 +115,10 @@ public abstract class Expr {
 
     public static class Variable extends Expr {
         final Token identifier;
+        // Set by the Resolver when no enclosing local scope declares the name.
+        boolean global;
+        // The global's cell, once it has been looked up.
+        GlobalEnvironment.Cell cell;
 
         public Variable(Token identifier) {
             this.identifier = identifier;
@@ -112,6 +133,10 @@ public abstract class Expr {
     public static class Assign extends Expr {
         final Token var;
         final Expr value;
+        // Set by the Resolver when no enclosing local scope declares the name.
+        boolean global;
+        // The global's cell, once it has been looked up.
+        GlobalEnvironment.Cell cell;
 
         Assign(Token var,Expr value) {
             this.var = var;
@@ -145,6 +170,8 @@ public abstract class Expr {
         final Expr callee;
         final Token paren;
         final List<Expr> args;
+        // Created on the first call.
+        InlineCache inline;
 
         Call(Expr callee, Token paren, List<Expr> args) {
             this.callee = callee;
@@ -158,5 +185,152 @@ public abstract class Expr {
         }
     }
 
+    public static class Get extends Expr {
+        final Expr object;
+        final Token name;
+        // Inline cache: how this property was found on the last shape seen here.
+        PropertyCache cache;
+
+        Get(Expr object, Token name) {
+            this.object = object;
+            this.name = name;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitGetExpr(this);
+        }
+    }
+
+    public static class Set extends Expr {
+        final Expr object;
+        final Token name;
+        final Expr value;
+        // Inline cache: where the field went for the last shape seen here.
+        PropertyCache cache;
+
+        Set(Expr object, Token name, Expr value) {
+            this.object = object;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitSetExpr(this);
+        }
+    }
+
+    public static class This extends Expr {
+        final Token keyword;
+
+        This(Token keyword) {
+            this.keyword = keyword;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitThisExpr(this);
+        }
+    }
+
+    public static class Super extends Expr {
+        final Token keyword;
+        final Token method;
+
+        Super(Token keyword, Token method) {
+            this.keyword = keyword;
+            this.method = method;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitSuperExpr(this);
+        }
+    }
+
     abstract <T> T accept(Visitor<T> visitor);
+
+    /**
+     * A binary operation whose operands are both variables or literals, such
+     * as `i < n` or `a == 0`, evaluated in one step. Built by {@link Fusion};
+     * passes other than the interpreter look at {@link #original}.
+     */
+    public static class FusedBinary extends Expr {
+        final Binary original;
+        // Exactly one of each pair is used: the variable if set, else the constant.
+        final Variable leftVariable;
+        final Object leftConstant;
+        final Variable rightVariable;
+        final Object rightConstant;
+
+        FusedBinary(Binary original, Variable leftVariable, Object leftConstant,
+                    Variable rightVariable, Object rightConstant) {
+            this.original = original;
+            this.leftVariable = leftVariable;
+            this.leftConstant = leftConstant;
+            this.rightVariable = rightVariable;
+            this.rightConstant = rightConstant;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitFusedBinary(this);
+        }
+    }
+
+    /**
+     * An assignment of the form `x = x op operand`, evaluated in one step.
+     * Built by {@link Fusion}; passes other than the interpreter look at
+     * {@link #original}.
+     */
+    public static class CompoundAssign extends Expr {
+        final Assign original;
+        final Variable target;
+        final Token operator;
+        final Expr operand;
+        // Set when the operand is a literal, so it needn't be evaluated.
+        final boolean constantOperand;
+        final Object constant;
+
+        CompoundAssign(Assign original, Variable target, Token operator, Expr operand) {
+            this.original = original;
+            this.target = target;
+            this.operator = operator;
+            this.operand = operand;
+            this.constantOperand = operand instanceof Literal;
+            this.constant = constantOperand ? ((Literal) operand).value : null;
+        }
+
+        Binary operation() {
+            return original.value instanceof FusedBinary fused ? fused.original : (Binary) original.value;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitCompoundAssign(this);
+        }
+    }
+
+    /**
+     * Reports evaluations of {@link #expression} to a listener. Built by
+     * {@link Instrumentation}; passes other than the interpreter look at
+     * {@link #expression}.
+     */
+    public static class Probe extends Expr {
+        final Expr expression;
+        final Instrumentation.Listener listener;
+        final int line;
+
+        Probe(Expr expression, Instrumentation.Listener listener, int line) {
+            this.expression = expression;
+            this.listener = listener;
+            this.line = line;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitProbe(this);
+        }
+    }
 }
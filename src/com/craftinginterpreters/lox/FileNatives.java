@@ -0,0 +1,55 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Streaming reads from text files:
+ * <pre>
+ *     var log = fileOpen("access.log");
+ *     var line = fileReadLine(log);
+ *     while (line != nil) { process(line); line = fileReadLine(log); }
+ *     fileClose(log);
+ * </pre>
+ */
+class FileNatives extends NativeModule {
+    private static final int FILE_OPEN = 0;
+    private static final int FILE_READ_LINE = 1;
+    private static final int FILE_READ_CHUNK = 2;
+    private static final int FILE_CLOSE = 3;
+
+    @Override
+    void install(Environment globals) {
+        define(globals, "fileOpen", 1, FILE_OPEN);
+        define(globals, "fileReadLine", 1, FILE_READ_LINE);
+        define(globals, "fileReadChunk", 2, FILE_READ_CHUNK);
+        define(globals, "fileClose", 1, FILE_CLOSE);
+    }
+
+    @Override
+    Object call(int id, Interpreter interpreter, List<Object> args) {
+        try {
+            return switch (id) {
+                case FILE_OPEN -> new LoxFile(string(args, 0, "fileOpen"));
+                case FILE_READ_LINE -> file(args.get(0), "fileReadLine").readLine();
+                case FILE_READ_CHUNK -> {
+                    int maxBytes = integer(args, 1, "fileReadChunk");
+                    if (maxBytes <= 0) throw new NativeError("fileReadChunk expects a positive size.");
+                    yield file(args.get(0), "fileReadChunk").readChunk(maxBytes);
+                }
+                case FILE_CLOSE -> {
+                    file(args.get(0), "fileClose").close();
+                    yield null;
+                }
+                default -> throw new IllegalArgumentException("Unknown native " + id);
+            };
+        } catch (IOException e) {
+            throw new NativeError("I/O error: " + e.getMessage());
+        }
+    }
+
+    private static LoxFile file(Object value, String name) {
+        if (value instanceof LoxFile file) return file;
+        throw new NativeError(name + " expects a file.");
+    }
+}
@@ -0,0 +1,549 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A program's syntax tree packed into a handful of primitive arrays, for
+ * programs too big to keep as one object per node and one {@link Token} per
+ * name. Node i has kind {@code kinds[i]}, the line its errors are reported
+ * at in {@code lines[i]}, and up to three operands in {@code a}, {@code b}
+ * and {@code c}: other nodes, indexes into {@code constants} for names and
+ * literal values, list references, or cache slots. A list reference is an
+ * offset into {@code lists} holding the list's length followed by its items.
+ * Absent optional children are -1.
+ *
+ * <p>{@link FlatInterpreter} runs the arrays directly. {@link #decode()}
+ * turns them back into {@link Stmt} and {@link Expr} objects for tools that
+ * want the object tree.
+ *
+ * <p>Functions whose bodies --lazy-parse hasn't built yet are kept as their
+ * {@link Stmt.Function}, so encoding doesn't parse them. They are built on
+ * first call as usual and then run from the object tree.
+ */
+final class FlatAst {
+    // Expressions.
+    static final byte LITERAL = 0;       // a: constant
+    static final byte GROUPING = 1;      // a: expression
+    static final byte UNARY = 2;         // a: operand
+    static final byte BINARY = 3;        // a: left, b: right, c: 1 if numeric
+    static final byte LOGICAL = 4;       // a: left, b: right
+    static final byte TERNARY = 5;       // a: condition, b: then, c: otherwise
+    static final byte VARIABLE = 6;      // a: name
+    static final byte GLOBAL = 7;        // a: name, c: slot
+    static final byte ASSIGN = 8;        // a: name, b: value
+    static final byte GLOBAL_ASSIGN = 9; // a: name, b: value, c: slot
+    static final byte CALL = 10;         // a: callee, b: argument list, c: slot
+    static final byte GET = 11;          // a: object, b: name, c: slot
+    static final byte SET = 12;          // a: object, b: value, c: slot, whose name is in slotNames
+    static final byte THIS = 13;
+    static final byte SUPER = 14;        // a: method name
+    // Statements. Their line is where they start, or for those that can fail, their token's line.
+    static final byte EXPRESSION = 15;   // a: expression
+    static final byte PRINT = 16;        // a: expression
+    static final byte VAR = 17;          // a: name, b: initializer
+    static final byte BLOCK = 18;        // a: statement list
+    static final byte IF = 19;           // a: condition, b: then, c: else
+    static final byte WHILE = 20;        // a: condition, b: body
+    static final byte FUNCTION = 21;     // a: name, b: parameter name list then capture list, c: body list,
+                                         // operator: 1 if it has local frames
+    static final byte RETURN = 22;       // a: value
+    static final byte CLASS = 23;        // a: name, b: superclass variable, c: method list
+    static final byte IMPORT = 24;       // a: path
+    static final byte LAZY_FUNCTION = 25; // a: constant holding the Stmt.Function, whose body isn't built yet
+
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    byte[] kinds = new byte[256];
+    // For UNARY, BINARY and LOGICAL nodes, the operator's TokenType ordinal.
+    byte[] operators = new byte[256];
+    int[] lines = new int[256];
+    int[] a = new int[256];
+    int[] b = new int[256];
+    int[] c = new int[256];
+    int[] lists = new int[256];
+    Object[] constants = new Object[64];
+    // Inline caches: a global's cell, a property access's PropertyCache or a call's InlineCache.
+    Object[] caches;
+    // The name each cache slot looks up, or -1 for calls.
+    int[] slotNames = new int[64];
+    // List of top-level statements.
+    int root;
+
+    private int nodeCount;
+    private int listSize;
+    private int constantCount;
+    private int slotCount;
+    private final Map<Object, Integer> constantIndexes = new HashMap<>();
+    private static final Object NIL_CONSTANT = new Object();
+
+    private FlatAst() {
+    }
+
+    /**
+     * Encodes resolved statements, which must have parsed without errors.
+     */
+    static FlatAst encode(List<Stmt> statements) {
+        FlatAst ast = new FlatAst();
+        ast.root = new Encoder(ast).encodeStatements(statements);
+        ast.trim();
+        return ast;
+    }
+
+    /**
+     * Returns a function's capture list, which follows its parameter list:
+     * the number of captured names, or -1 if it keeps its whole defining
+     * environment, then a name and a distance for each.
+     */
+    int captureList(int function) {
+        int parameters = b[function];
+        return parameters + 1 + lists[parameters];
+    }
+
+    TokenType operator(int node) {
+        return TOKEN_TYPES[operators[node]];
+    }
+
+    String name(int constant) {
+        return (String) constants[constant];
+    }
+
+    Stmt.Function lazyFunction(int node) {
+        return (Stmt.Function) constants[a[node]];
+    }
+
+    private void trim() {
+        kinds = Arrays.copyOf(kinds, nodeCount);
+        operators = Arrays.copyOf(operators, nodeCount);
+        lines = Arrays.copyOf(lines, nodeCount);
+        a = Arrays.copyOf(a, nodeCount);
+        b = Arrays.copyOf(b, nodeCount);
+        c = Arrays.copyOf(c, nodeCount);
+        lists = Arrays.copyOf(lists, listSize);
+        constants = Arrays.copyOf(constants, constantCount);
+        slotNames = Arrays.copyOf(slotNames, slotCount);
+        caches = new Object[slotCount];
+        constantIndexes.clear();
+    }
+
+    private int node(byte kind, int line, int first, int second, int third) {
+        if (nodeCount == kinds.length) {
+            int capacity = nodeCount * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            operators = Arrays.copyOf(operators, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            a = Arrays.copyOf(a, capacity);
+            b = Arrays.copyOf(b, capacity);
+            c = Arrays.copyOf(c, capacity);
+        }
+        kinds[nodeCount] = kind;
+        lines[nodeCount] = line;
+        a[nodeCount] = first;
+        b[nodeCount] = second;
+        c[nodeCount] = third;
+        return nodeCount++;
+    }
+
+    private int list(int[] items) {
+        while (listSize + items.length + 1 > lists.length) lists = Arrays.copyOf(lists, lists.length * 2);
+        int list = listSize;
+        lists[listSize++] = items.length;
+        System.arraycopy(items, 0, lists, listSize, items.length);
+        listSize += items.length;
+        return list;
+    }
+
+    private void captures(String[] names, int[] distances) {
+        int count = names == null ? 0 : names.length;
+        int[] pairs = new int[count * 2];
+        for (int i = 0; i < count; i++) {
+            pairs[2 * i] = constant(names[i]);
+            pairs[2 * i + 1] = distances[i];
+        }
+        int list = list(pairs);
+        lists[list] = names == null ? -1 : count;
+    }
+
+    private int constant(Object value) {
+        Object key = value == null ? NIL_CONSTANT : value;
+        Integer index = constantIndexes.get(key);
+        if (index != null) return index;
+        if (constantCount == constants.length) constants = Arrays.copyOf(constants, constantCount * 2);
+        constants[constantCount] = value;
+        constantIndexes.put(key, constantCount);
+        return constantCount++;
+    }
+
+    private int slot(int name) {
+        if (slotCount == slotNames.length) slotNames = Arrays.copyOf(slotNames, slotCount * 2);
+        slotNames[slotCount] = name;
+        return slotCount++;
+    }
+
+    private static class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Void> {
+        private final FlatAst ast;
+        // Result of the statement visited last, since statement visitors return Void.
+        private int encoded;
+
+        Encoder(FlatAst ast) {
+            this.ast = ast;
+        }
+
+        int encodeStatements(List<Stmt> statements) {
+            int[] items = new int[statements.size()];
+            for (int i = 0; i < items.length; i++) items[i] = encode(statements.get(i));
+            return ast.list(items);
+        }
+
+        private int encode(Stmt statement) {
+            if (statement == null) return -1;
+            statement.accept(this);
+            return encoded;
+        }
+
+        private int encode(Expr expr) {
+            return expr == null ? -1 : expr.accept(this);
+        }
+
+        private int withOperator(int node, Token operator) {
+            ast.operators[node] = (byte) operator.type.ordinal();
+            return node;
+        }
+
+        @Override
+        public Integer visitUnary(Expr.Unary expr) {
+            return withOperator(ast.node(UNARY, expr.operator.line, encode(expr.right), -1, -1), expr.operator);
+        }
+
+        @Override
+        public Integer visitBinary(Expr.Binary expr) {
+            int left = encode(expr.left);
+            int right = encode(expr.right);
+            return withOperator(ast.node(BINARY, expr.operator.line, left, right, expr.numeric ? 1 : 0), expr.operator);
+        }
+
+        @Override
+        public Integer visitLiteral(Expr.Literal expr) {
+            return ast.node(LITERAL, 0, ast.constant(expr.value), -1, -1);
+        }
+
+        @Override
+        public Integer visitGrouping(Expr.Grouping expr) {
+            return ast.node(GROUPING, 0, encode(expr.expression), -1, -1);
+        }
+
+        @Override
+        public Integer visitTernary(Expr.Ternary expr) {
+            int condition = encode(expr.left);
+            int then = encode(expr.mid);
+            int otherwise = encode(expr.right);
+            return ast.node(TERNARY, 0, condition, then, otherwise);
+        }
+
+        @Override
+        public Integer visitVariable(Expr.Variable variable) {
+            Token name = variable.identifier;
+            int constant = ast.constant(name.lexeme);
+            if (variable.global) return ast.node(GLOBAL, name.line, constant, -1, ast.slot(constant));
+            return ast.node(VARIABLE, name.line, constant, -1, -1);
+        }
+
+        @Override
+        public Integer visitAssignment(Expr.Assign assign) {
+            int constant = ast.constant(assign.var.lexeme);
+            int value = encode(assign.value);
+            if (assign.global) return ast.node(GLOBAL_ASSIGN, assign.var.line, constant, value, ast.slot(constant));
+            return ast.node(ASSIGN, assign.var.line, constant, value, -1);
+        }
+
+        @Override
+        public Integer visitLogicalOperator(Expr.Logical logical) {
+            int left = encode(logical.left);
+            int right = encode(logical.right);
+            return withOperator(ast.node(LOGICAL, logical.operator.line, left, right, -1), logical.operator);
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call call) {
+            int callee = encode(call.callee);
+            int[] args = new int[call.args.size()];
+            for (int i = 0; i < args.length; i++) args[i] = encode(call.args.get(i));
+            return ast.node(CALL, call.paren.line, callee, ast.list(args), ast.slot(-1));
+        }
+
+        @Override
+        public Integer visitGetExpr(Expr.Get get) {
+            int constant = ast.constant(get.name.lexeme);
+            return ast.node(GET, get.name.line, encode(get.object), constant, ast.slot(constant));
+        }
+
+        @Override
+        public Integer visitSetExpr(Expr.Set set) {
+            int object = encode(set.object);
+            int value = encode(set.value);
+            return ast.node(SET, set.name.line, object, value, ast.slot(ast.constant(set.name.lexeme)));
+        }
+
+        @Override
+        public Integer visitThisExpr(Expr.This thisExpr) {
+            return ast.node(THIS, thisExpr.keyword.line, -1, -1, -1);
+        }
+
+        @Override
+        public Integer visitSuperExpr(Expr.Super superExpr) {
+            return ast.node(SUPER, superExpr.method.line, ast.constant(superExpr.method.lexeme), -1, -1);
+        }
+
+        @Override
+        public Integer visitFusedBinary(Expr.FusedBinary fused) {
+            return visitBinary(fused.original);
+        }
+
+        @Override
+        public Integer visitCompoundAssign(Expr.CompoundAssign compound) {
+            return visitAssignment(compound.original);
+        }
+
+        // Instrumented programs aren't run flat, so probes are dropped.
+        @Override
+        public Integer visitProbe(Expr.Probe probe) {
+            return encode(probe.expression);
+        }
+
+        @Override
+        public Void visitProbeStmt(Stmt.Probe probe) {
+            probe.statement.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression expressionStatement) {
+            encoded = ast.node(EXPRESSION, expressionStatement.line, encode(expressionStatement.expression), -1, -1);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print printStatement) {
+            encoded = ast.node(PRINT, printStatement.line, encode(printStatement.expression), -1, -1);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var var) {
+            int initializer = encode(var.initializer);
+            encoded = ast.node(VAR, var.name.line, ast.constant(var.name.lexeme), initializer, -1);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block block) {
+            encoded = ast.node(BLOCK, block.line, encodeStatements(block.statements), -1, -1);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If ifStmt) {
+            int condition = encode(ifStmt.condition);
+            int then = encode(ifStmt.thenStatements);
+            int otherwise = encode(ifStmt.elseStatements);
+            encoded = ast.node(IF, ifStmt.line, condition, then, otherwise);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStatement(Stmt.While whileStmt) {
+            int condition = encode(whileStmt.condition);
+            int body = encode(whileStmt.whileBlock);
+            encoded = ast.node(WHILE, whileStmt.line, condition, body, -1);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function function) {
+            if (!function.isParsed()) {
+                encoded = ast.node(LAZY_FUNCTION, function.line, ast.constant(function), -1, -1);
+                return null;
+            }
+            int[] parameters = new int[function.parameters.size()];
+            for (int i = 0; i < parameters.length; i++) {
+                parameters[i] = ast.constant(function.parameters.get(i).lexeme);
+            }
+            List<Stmt> statements = function.body();
+            int parameterList = ast.list(parameters);
+            ast.captures(function.captures, function.captureDistances);
+            int body = encodeStatements(statements);
+            encoded = ast.node(FUNCTION, function.fnName.line, ast.constant(function.fnName.lexeme), parameterList, body);
+            ast.operators[encoded] = (byte) (function.localFrames ? 1 : 0);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return returnStmt) {
+            encoded = ast.node(RETURN, returnStmt.returnKeyword.line, encode(returnStmt.returnExpression), -1, -1);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class classStmt) {
+            int superclass = encode(classStmt.superclass);
+            int[] methods = new int[classStmt.methods.size()];
+            for (int i = 0; i < methods.length; i++) methods[i] = encode(classStmt.methods.get(i));
+            encoded = ast.node(CLASS, classStmt.name.line, ast.constant(classStmt.name.lexeme), superclass, ast.list(methods));
+            return null;
+        }
+
+        @Override
+        public Void visitImportStmt(Stmt.Import importStmt) {
+            encoded = ast.node(IMPORT, importStmt.path.line, ast.constant(importStmt.path.literal), -1, -1);
+            return null;
+        }
+    }
+
+    /**
+     * Rebuilds the object tree. Tokens are recreated from names and lines,
+     * so their lexemes and lines match the source but they aren't the
+     * original Token objects.
+     */
+    List<Stmt> decode() {
+        return decodeStatements(root);
+    }
+
+    Stmt.Function decodeFunction(int node) {
+        return (Stmt.Function) decodeStatement(node);
+    }
+
+    private List<Stmt> decodeStatements(int list) {
+        int length = lists[list];
+        List<Stmt> statements = new ArrayList<>(length);
+        for (int i = 1; i <= length; i++) statements.add(decodeStatement(lists[list + i]));
+        return statements;
+    }
+
+    private Token token(TokenType type, String lexeme, int node) {
+        return new Token(lexeme, type, lines[node], null);
+    }
+
+    private Token nameToken(int constant, int node) {
+        return token(TokenType.IDENTIFIER, name(constant), node);
+    }
+
+    private Token operatorToken(int node) {
+        TokenType type = operator(node);
+        return token(type, lexeme(type), node);
+    }
+
+    private Stmt decodeStatement(int node) {
+        if (node < 0) return null;
+        Stmt statement = decodeStatementNode(node);
+        statement.line = lines[node];
+        return statement;
+    }
+
+    private Stmt decodeStatementNode(int node) {
+        switch (kinds[node]) {
+            case EXPRESSION: return new Stmt.Expression(decodeExpr(a[node]));
+            case PRINT: return new Stmt.Print(decodeExpr(a[node]));
+            case VAR: return new Stmt.Var(nameToken(a[node], node), decodeExpr(b[node]));
+            case BLOCK: return new Stmt.Block(decodeStatements(a[node]));
+            case IF: return new Stmt.If(decodeExpr(a[node]), decodeStatement(b[node]), decodeStatement(c[node]));
+            case WHILE:
+                return new Stmt.While(token(TokenType.WHILE, "while", node), decodeExpr(a[node]),
+                        decodeStatement(b[node]));
+            case FUNCTION: {
+                int parameterList = b[node];
+                List<Token> parameters = new ArrayList<>();
+                for (int i = 1; i <= lists[parameterList]; i++) parameters.add(nameToken(lists[parameterList + i], node));
+                Stmt.Function function = new Stmt.Function(nameToken(a[node], node), parameters, decodeStatements(c[node]));
+                int captureList = captureList(node);
+                int count = lists[captureList];
+                if (count >= 0) {
+                    function.captures = new String[count];
+                    function.captureDistances = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        function.captures[i] = name(lists[captureList + 1 + 2 * i]);
+                        function.captureDistances[i] = lists[captureList + 2 + 2 * i];
+                    }
+                }
+                function.localFrames = operators[node] != 0;
+                return function;
+            }
+            case LAZY_FUNCTION: return lazyFunction(node);
+            case RETURN: return new Stmt.Return(token(TokenType.RETURN, "return", node), decodeExpr(a[node]));
+            case CLASS: {
+                int methodList = c[node];
+                List<Stmt.Function> methods = new ArrayList<>();
+                for (int i = 1; i <= lists[methodList]; i++) methods.add(decodeFunction(lists[methodList + i]));
+                return new Stmt.Class(nameToken(a[node], node), (Expr.Variable) decodeExpr(b[node]), methods);
+            }
+            case IMPORT: {
+                Token path = new Token("\"" + constants[a[node]] + "\"", TokenType.STRING, lines[node], constants[a[node]]);
+                return new Stmt.Import(token(TokenType.IMPORT, "import", node), path);
+            }
+            default: throw new IllegalStateException("Not a statement: " + kinds[node]);
+        }
+    }
+
+    private Expr decodeExpr(int node) {
+        if (node < 0) return null;
+        switch (kinds[node]) {
+            case LITERAL: return new Expr.Literal(constants[a[node]]);
+            case GROUPING: return new Expr.Grouping(decodeExpr(a[node]));
+            case UNARY: return new Expr.Unary(operatorToken(node), decodeExpr(a[node]));
+            case BINARY: {
+                Expr.Binary binary = new Expr.Binary(decodeExpr(a[node]), operatorToken(node), decodeExpr(b[node]));
+                binary.numeric = c[node] == 1;
+                return binary;
+            }
+            case LOGICAL: return new Expr.Logical(decodeExpr(a[node]), operatorToken(node), decodeExpr(b[node]));
+            case TERNARY:
+                return new Expr.Ternary(decodeExpr(a[node]), token(TokenType.QUESTION, "?", node),
+                        decodeExpr(b[node]), token(TokenType.COLON, ":", node), decodeExpr(c[node]));
+            case VARIABLE:
+            case GLOBAL: {
+                Expr.Variable variable = new Expr.Variable(nameToken(a[node], node));
+                variable.global = kinds[node] == GLOBAL;
+                return variable;
+            }
+            case ASSIGN:
+            case GLOBAL_ASSIGN: {
+                Expr.Assign assign = new Expr.Assign(nameToken(a[node], node), decodeExpr(b[node]));
+                assign.global = kinds[node] == GLOBAL_ASSIGN;
+                return assign;
+            }
+            case CALL: {
+                int argList = b[node];
+                List<Expr> args = new ArrayList<>();
+                for (int i = 1; i <= lists[argList]; i++) args.add(decodeExpr(lists[argList + i]));
+                return new Expr.Call(decodeExpr(a[node]), token(TokenType.RIGHT_PAREN, ")", node), args);
+            }
+            case GET: return new Expr.Get(decodeExpr(a[node]), nameToken(b[node], node));
+            case SET: return new Expr.Set(decodeExpr(a[node]), nameToken(slotNames[c[node]], node), decodeExpr(b[node]));
+            case THIS: return new Expr.This(token(TokenType.THIS, "this", node));
+            case SUPER: return new Expr.Super(token(TokenType.SUPER, "super", node), nameToken(a[node], node));
+            default: throw new IllegalStateException("Not an expression: " + kinds[node]);
+        }
+    }
+
+    private static String lexeme(TokenType type) {
+        switch (type) {
+            case BANG: return "!";
+            case BANG_EQUAL: return "!=";
+            case EQUAL_EQUAL: return "==";
+            case GREATER: return ">";
+            case GREATER_EQUAL: return ">=";
+            case LESS: return "<";
+            case LESS_EQUAL: return "<=";
+            case MINUS: return "-";
+            case PLUS: return "+";
+            case SLASH: return "/";
+            case STAR: return "*";
+            case COMMA: return ",";
+            case AND: return "and";
+            case OR: return "or";
+            default: return type.name();
+        }
+    }
+}
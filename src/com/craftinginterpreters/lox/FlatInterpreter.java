@@ -0,0 +1,289 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a {@link FlatAst} by switching on node kinds, with the same semantics
+ * and error messages as the {@link Interpreter} visitors it stands in for.
+ * State such as the current environment and the call depth lives on the
+ * interpreter this belongs to, so flat and object-tree code can call each
+ * other, e.g. when a flat program imports a module.
+ */
+class FlatInterpreter {
+    private final Interpreter interpreter;
+
+    FlatInterpreter(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    void executeStatements(FlatAst ast, int list) {
+        int[] lists = ast.lists;
+        int end = list + lists[list];
+        for (int i = list + 1; i <= end; i++) {
+            execute(ast, lists[i]);
+        }
+    }
+
+    void executeBlock(FlatAst ast, int list, Environment environment) {
+        Environment previous = interpreter.environment;
+        try {
+            interpreter.environment = environment;
+            executeStatements(ast, list);
+        } finally {
+            interpreter.environment = previous;
+        }
+    }
+
+    private void execute(FlatAst ast, int node) {
+        switch (ast.kinds[node]) {
+            case FlatAst.EXPRESSION -> evaluate(ast, ast.a[node]);
+            case FlatAst.PRINT -> interpreter.output.println(Interpreter.stringify(evaluate(ast, ast.a[node])));
+            case FlatAst.VAR -> {
+                int initializer = ast.b[node];
+                interpreter.environment.define(ast.name(ast.a[node]),
+                        initializer >= 0 ? evaluate(ast, initializer) : null);
+            }
+            case FlatAst.BLOCK -> {
+                interpreter.chargeFrame(ast.lines[node]);
+                executeBlock(ast, ast.a[node], new Environment(interpreter.environment));
+            }
+            case FlatAst.IF -> {
+                if (interpreter.isTruthy(evaluate(ast, ast.a[node]))) {
+                    execute(ast, ast.b[node]);
+                } else if (ast.c[node] >= 0) {
+                    execute(ast, ast.c[node]);
+                }
+            }
+            case FlatAst.WHILE -> {
+                int condition = ast.a[node];
+                int body = ast.b[node];
+                while (interpreter.isTruthy(evaluate(ast, condition))) {
+                    interpreter.countInstruction(ast.lines[node]);
+                    execute(ast, body);
+                }
+            }
+            case FlatAst.FUNCTION -> {
+                interpreter.chargeClosure(ast.lines[node]);
+                interpreter.environment.define(ast.name(ast.a[node]),
+                        new LoxFunction(ast, node, closure(ast, node, interpreter.environment), false));
+            }
+            case FlatAst.LAZY_FUNCTION -> {
+                interpreter.chargeClosure(ast.lines[node]);
+                Stmt.Function declaration = ast.lazyFunction(node);
+                interpreter.environment.define(declaration.fnName.lexeme,
+                        new LoxFunction(declaration, interpreter.closure(declaration, interpreter.environment)));
+            }
+            case FlatAst.RETURN -> {
+                int value = ast.a[node];
+                throw new Return(value >= 0 ? evaluate(ast, value) : null);
+            }
+            case FlatAst.CLASS -> executeClass(ast, node);
+            case FlatAst.IMPORT -> interpreter.importModule((String) ast.constants[ast.a[node]],
+                    ast.lines[node], ast.lines[node]);
+            default -> throw new IllegalStateException("Not a statement: " + ast.kinds[node]);
+        }
+    }
+
+    private void executeClass(FlatAst ast, int node) {
+        Environment environment = interpreter.environment;
+        String name = ast.name(ast.a[node]);
+        LoxClass superclass = null;
+        int superclassNode = ast.b[node];
+        if (superclassNode >= 0) {
+            Object value = evaluate(ast, superclassNode);
+            if (!(value instanceof LoxClass)) {
+                throw new RuntimeError(ast.lines[superclassNode], "Superclass must be a class.");
+            }
+            superclass = (LoxClass) value;
+        }
+        environment.define(name, null);
+
+        Environment methodEnvironment = environment;
+        if (superclass != null) {
+            methodEnvironment = new Environment(environment);
+            methodEnvironment.define("super", superclass);
+        }
+        Map<String, LoxFunction> methods = new HashMap<>();
+        int methodList = ast.c[node];
+        for (int i = 1; i <= ast.lists[methodList]; i++) {
+            int method = ast.lists[methodList + i];
+            if (ast.kinds[method] == FlatAst.LAZY_FUNCTION) {
+                Stmt.Function declaration = ast.lazyFunction(method);
+                String methodName = declaration.fnName.lexeme;
+                methods.put(methodName, new LoxFunction(declaration,
+                        interpreter.closure(declaration, methodEnvironment), methodName.equals("init")));
+                continue;
+            }
+            String methodName = ast.name(ast.a[method]);
+            methods.put(methodName, new LoxFunction(ast, method, closure(ast, method, methodEnvironment),
+                    methodName.equals("init")));
+        }
+        environment.assign(name, new LoxClass(name, superclass, methods), ast.lines[node]);
+    }
+
+    /**
+     * Creates the environment a function node defined in {@code defining}
+     * closes over, as Interpreter.closure does for the object tree.
+     */
+    private Environment closure(FlatAst ast, int function, Environment defining) {
+        int list = ast.captureList(function);
+        int count = ast.lists[list];
+        if (count < 0) return defining;
+        Environment closure = new Environment(interpreter.globals);
+        for (int i = 0; i < count; i++) {
+            defining.capture(ast.name(ast.lists[list + 1 + 2 * i]), ast.lists[list + 2 + 2 * i], closure);
+        }
+        return closure;
+    }
+
+    Object evaluate(FlatAst ast, int node) {
+        switch (ast.kinds[node]) {
+            case FlatAst.LITERAL:
+                return ast.constants[ast.a[node]];
+            case FlatAst.GROUPING:
+                return evaluate(ast, ast.a[node]);
+            case FlatAst.UNARY:
+                return interpreter.applyUnary(ast.operator(node), ast.lines[node], evaluate(ast, ast.a[node]));
+            case FlatAst.BINARY: {
+                Object left = evaluate(ast, ast.a[node]);
+                Object right = evaluate(ast, ast.b[node]);
+                if (ast.c[node] == 1 && left instanceof Double a && right instanceof Double b) {
+                    return interpreter.applyNumeric(ast.operator(node), ast.lines[node], a, b);
+                }
+                return interpreter.applyBinary(ast.operator(node), ast.lines[node], left, right);
+            }
+            case FlatAst.LOGICAL: {
+                Object left = evaluate(ast, ast.a[node]);
+                if (ast.operator(node) == TokenType.OR) {
+                    if (interpreter.isTruthy(left)) return left;
+                } else {
+                    if (!interpreter.isTruthy(left)) return left;
+                }
+                return evaluate(ast, ast.b[node]);
+            }
+            case FlatAst.TERNARY:
+                return interpreter.isTruthy(evaluate(ast, ast.a[node]))
+                        ? evaluate(ast, ast.b[node])
+                        : evaluate(ast, ast.c[node]);
+            case FlatAst.VARIABLE:
+                return interpreter.environment.get(ast.name(ast.a[node]), ast.lines[node]);
+            case FlatAst.GLOBAL:
+                return globalCell(ast, node).value;
+            case FlatAst.ASSIGN:
+            case FlatAst.GLOBAL_ASSIGN:
+                return assign(ast, node);
+            case FlatAst.CALL: {
+                Object callee = evaluate(ast, ast.a[node]);
+                int argList = ast.b[node];
+                int count = ast.lists[argList];
+                if (interpreter.memoizer == null) {
+                    InlineCache inline = (InlineCache) ast.caches[ast.c[node]];
+                    if (inline == null) ast.caches[ast.c[node]] = inline = new InlineCache();
+                    InlineCache.Plan plan = inline.plan;
+                    if (plan != null) {
+                        if (plan.function == callee) return callInlined(ast, node, plan);
+                        inline.deoptimize();
+                    }
+                    inline.profile(callee, count);
+                }
+                List<Object> args = new ArrayList<>(count);
+                for (int i = 1; i <= count; i++) args.add(evaluate(ast, ast.lists[argList + i]));
+                return interpreter.call(callee, args, ast.lines[node]);
+            }
+            case FlatAst.GET:
+                return get(ast, node);
+            case FlatAst.SET:
+                return set(ast, node);
+            case FlatAst.THIS:
+                return interpreter.environment.get("this", ast.lines[node]);
+            case FlatAst.SUPER: {
+                Environment environment = interpreter.environment;
+                LoxClass superclass = (LoxClass) environment.get("super", ast.lines[node]);
+                LoxInstance instance = (LoxInstance) environment.find("this");
+                String name = ast.name(ast.a[node]);
+                LoxFunction method = superclass.findMethod(name);
+                if (method == null) {
+                    throw new RuntimeError(ast.lines[node], "Undefined property '" + name + "'.");
+                }
+                return method.bind(instance);
+            }
+            default:
+                throw new IllegalStateException("Not an expression: " + ast.kinds[node]);
+        }
+    }
+
+    private Object callInlined(FlatAst ast, int node, InlineCache.Plan plan) {
+        int argList = ast.b[node];
+        Environment frame = plan.function.newFrame(interpreter);
+        try {
+            for (int i = 0; i < plan.parameters.length; i++) {
+                frame.define(plan.parameters[i], evaluate(ast, ast.lists[argList + 1 + i]));
+            }
+            return interpreter.runInlined(plan, frame, ast.lines[node]);
+        } finally {
+            plan.function.releaseFrame(interpreter, frame);
+        }
+    }
+
+    private GlobalEnvironment.Cell globalCell(FlatAst ast, int node) {
+        int slot = ast.c[node];
+        GlobalEnvironment globals = interpreter.globals;
+        if (ast.caches[slot] instanceof GlobalEnvironment.Cell cell && cell.owner == globals) return cell;
+        GlobalEnvironment.Cell cell = globals.cell(ast.name(ast.a[node]), ast.lines[node]);
+        ast.caches[slot] = cell;
+        return cell;
+    }
+
+    private Object assign(FlatAst ast, int node) {
+        Object value = evaluate(ast, ast.b[node]);
+        long taskGeneration = interpreter.taskGeneration;
+        if (ast.kinds[node] == FlatAst.GLOBAL_ASSIGN && taskGeneration == 0) {
+            globalCell(ast, node).value = value;
+        } else if (taskGeneration == 0) {
+            interpreter.environment.assign(ast.name(ast.a[node]), value, ast.lines[node]);
+        } else {
+            interpreter.environment.assignInTask(ast.name(ast.a[node]), value, taskGeneration, ast.lines[node]);
+        }
+        return value;
+    }
+
+    private Object get(FlatAst ast, int node) {
+        Object object = evaluate(ast, ast.a[node]);
+        if (!(object instanceof LoxInstance instance)) {
+            throw new RuntimeError(ast.lines[node], "Only instances have properties.");
+        }
+        int slot = ast.c[node];
+        String name = ast.name(ast.b[node]);
+        PropertyCache cache = (PropertyCache) ast.caches[slot];
+        if (cache == null || cache.shape != instance.shape) {
+            cache = PropertyCache.forGet(instance.shape, name);
+            ast.caches[slot] = cache;
+        }
+        if (cache.slot >= 0) return instance.fields[cache.slot];
+        if (cache.method != null) return cache.method.bind(instance);
+        throw new RuntimeError(ast.lines[node], "Undefined property '" + name + "'.");
+    }
+
+    private Object set(FlatAst ast, int node) {
+        Object object = evaluate(ast, ast.a[node]);
+        if (!(object instanceof LoxInstance instance)) {
+            throw new RuntimeError(ast.lines[node], "Only instances have fields.");
+        }
+        Object value = evaluate(ast, ast.b[node]);
+        int slot = ast.c[node];
+        PropertyCache cache = (PropertyCache) ast.caches[slot];
+        if (cache == null || cache.shape != instance.shape) {
+            cache = PropertyCache.forSet(instance.shape, ast.name(ast.slotNames[slot]));
+            ast.caches[slot] = cache;
+        }
+        if (cache.transition == null) {
+            instance.fields[cache.slot] = value;
+        } else {
+            instance.addField(cache.transition, value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,43 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Replaces common small expression shapes with fused nodes as the parser
+ * builds them, so the interpreter handles each in one dispatch instead of
+ * three or four: binary operations on variables and literals like `i < n`,
+ * and updates like `i = i + 1` or `x = x + expr`. Fused nodes keep the
+ * expression they replace, and evaluate it in the same order, with the same
+ * errors reported at the same tokens.
+ */
+class Fusion {
+    static volatile boolean enabled = true;
+
+    static Expr binary(Expr.Binary binary) {
+        if (!enabled || binary.operator.type == TokenType.COMMA) return binary;
+        boolean leftSimple = binary.left instanceof Expr.Variable || binary.left instanceof Expr.Literal;
+        boolean rightSimple = binary.right instanceof Expr.Variable || binary.right instanceof Expr.Literal;
+        if (!leftSimple || !rightSimple) return binary;
+        return new Expr.FusedBinary(binary,
+                binary.left instanceof Expr.Variable variable ? variable : null,
+                binary.left instanceof Expr.Literal literal ? literal.value : null,
+                binary.right instanceof Expr.Variable variable ? variable : null,
+                binary.right instanceof Expr.Literal literal ? literal.value : null);
+    }
+
+    static Expr assign(Expr.Assign assign) {
+        if (!enabled) return assign;
+        Expr value = assign.value instanceof Expr.FusedBinary fused ? fused.original : assign.value;
+        if (!(value instanceof Expr.Binary binary)) return assign;
+        switch (binary.operator.type) {
+            case PLUS, MINUS, STAR, SLASH -> {
+                if (binary.left instanceof Expr.Variable target
+                        && target.identifier.lexeme.equals(assign.var.lexeme)) {
+                    return new Expr.CompoundAssign(assign, target, binary.operator, binary.right);
+                }
+                return assign;
+            }
+            default -> {
+                return assign;
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The outermost scope. Each global lives in a {@link Cell} allocated the
+ * first time the name is defined and kept for the rest of the run, so a
+ * variable expression that the {@link Resolver} has marked as global can
+ * hold on to the cell instead of walking the scope chain on every access.
+ * Redefining a global stores into the same cell, which keeps those cached
+ * references up to date. Expressions can be shared between interpreters
+ * through the module cache, so a cached cell is only used by the
+ * interpreter whose globals own it.
+ */
+class GlobalEnvironment extends Environment {
+    static final class Cell {
+        final GlobalEnvironment owner;
+        final String name;
+        Object value;
+
+        private Cell(GlobalEnvironment owner, String name, Object value) {
+            this.owner = owner;
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    private final Map<String, Cell> cells = new ConcurrentHashMap<>();
+    // Absolute paths of the modules imported into these globals.
+    private final Set<Path> importedModules = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Returns the cell holding a global, or reports it as undefined. Callers
+     * may cache the result since cells are never removed.
+     */
+    Cell cell(Token name) {
+        return cell(name.lexeme, name.line);
+    }
+
+    Cell cell(String name, int line) {
+        Cell cell = cells.get(name);
+        if (cell == null) throw new RuntimeError(line, "Undefined variable '" + name + "'.");
+        return cell;
+    }
+
+    /**
+     * Records that a module is being imported, returning false if it already was.
+     */
+    boolean markImported(Path module) {
+        return importedModules.add(module);
+    }
+
+    void unmarkImported(Path module) {
+        importedModules.remove(module);
+    }
+
+    @Override
+    void define(String name, Object value) {
+        Cell cell = cells.get(name);
+        if (cell != null) {
+            cell.value = value;
+        } else {
+            cells.put(name, new Cell(this, name, value));
+        }
+    }
+
+    @Override
+    void assign(String name, Object value, int line) {
+        cell(name, line).value = value;
+    }
+
+    @Override
+    void assignInTask(String name, Object value, long taskGeneration, int line) {
+        Cell cell = cell(name, line);
+        if (generation < taskGeneration) {
+            throw new RuntimeError(line,
+                    "Cannot assign to captured variable '" + name + "' inside a parallel task.");
+        }
+        cell.value = value;
+    }
+
+    @Override
+    Object find(String name) {
+        Cell cell = cells.get(name);
+        return cell == null ? null : cell.value;
+    }
+
+    @Override
+    Object get(String name, int line) {
+        return cell(name, line).value;
+    }
+}
@@ -0,0 +1,233 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Watches what a call site calls, and once it has called the same small
+ * function {@link #WARM_UP} times in a row, speculates that it always will
+ * and runs that function's body in place of calling it: arguments go
+ * straight into the function's frame rather than a list, and the result
+ * is the value of an expression rather than a thrown {@link Return}.
+ * Before each inlined call the site checks the callee is still the same
+ * LoxFunction. If it isn't, the site deoptimizes: it goes back to normal
+ * calls and starts watching again, and after
+ * {@link #MAX_DEOPTIMIZATIONS} of those it stops trying.
+ *
+ * <p>Only bodies made of returns and ifs that return, like `abs` or `max`
+ * or a getter, are inlined, and only while their expressions are small and
+ * call nothing. That keeps recursive functions out.
+ */
+final class InlineCache {
+    static final int WARM_UP = 1_000;
+    private static final int MAX_DEOPTIMIZATIONS = 4;
+    // Nodes in all of a body's expressions.
+    private static final int MAX_SIZE = 32;
+
+    /**
+     * A function's body as guarded returns: the value of the first branch
+     * whose condition is truthy, or which has none, is the result.
+     * Functions run from a FlatAst are inlined from their decoded tree.
+     */
+    static final class Plan {
+        final LoxFunction function;
+        final String[] parameters;
+        final Expr[] conditions;
+        final Expr[] values;
+
+        private Plan(LoxFunction function, String[] parameters, Expr[] conditions, Expr[] values) {
+            this.function = function;
+            this.parameters = parameters;
+            this.conditions = conditions;
+            this.values = values;
+        }
+    }
+
+    // Sites can run on several threads at once; races only delay or repeat a decision.
+    Plan plan;
+    private Object profiled;
+    private int calls;
+    private int deoptimizations;
+    // From a saved profile: the function this site inlined in an earlier run, inlined again without warming up.
+    private String expected;
+
+    /**
+     * Counts a call made the normal way, inlining the callee once it's warm.
+     */
+    void profile(Object callee, int argumentCount) {
+        if (deoptimizations >= MAX_DEOPTIMIZATIONS) return;
+        if (callee != profiled) {
+            profiled = callee;
+            calls = 0;
+            if (expected == null || !(callee instanceof LoxFunction function) || !function.name().equals(expected)) {
+                return;
+            }
+        } else if (++calls < WARM_UP) {
+            return;
+        }
+        plan = callee instanceof LoxFunction function ? function.inlinePlan(argumentCount) : null;
+        // Nothing to gain from watching a site whose callee can't be inlined.
+        if (plan == null) deoptimizations = MAX_DEOPTIMIZATIONS;
+    }
+
+    void deoptimize() {
+        expected = null;
+        plan = null;
+        profiled = null;
+        calls = 0;
+        deoptimizations++;
+    }
+
+    void expect(String function) {
+        expected = function;
+    }
+
+    /**
+     * The function this site inlines, or is expected to, for profiles.
+     */
+    String inlined() {
+        Plan current = plan;
+        if (current != null) return current.function.name();
+        return deoptimizations == 0 ? expected : null;
+    }
+
+    /**
+     * Returns a plan for running the function's body inline, or null if it
+     * isn't small and simple enough.
+     */
+    static Plan plan(LoxFunction function, Stmt.Function declaration, int argumentCount) {
+        if (declaration.parameters.size() != argumentCount) return null;
+        List<Expr> conditions = new ArrayList<>();
+        List<Expr> values = new ArrayList<>();
+        boolean complete = false;
+        for (Stmt statement : declaration.body()) {
+            if (returnOf(statement) instanceof Stmt.Return returnStmt) {
+                conditions.add(null);
+                values.add(returnStmt.returnExpression);
+                complete = true;
+                break;
+            }
+            if (!(statement instanceof Stmt.If ifStmt)
+                    || !(returnOf(ifStmt.thenStatements) instanceof Stmt.Return then)) {
+                return null;
+            }
+            conditions.add(ifStmt.condition);
+            values.add(then.returnExpression);
+            if (ifStmt.elseStatements != null) {
+                if (!(returnOf(ifStmt.elseStatements) instanceof Stmt.Return otherwise)) return null;
+                conditions.add(null);
+                values.add(otherwise.returnExpression);
+                complete = true;
+                break;
+            }
+        }
+        if (!complete) {
+            // Falling off the end returns nil.
+            conditions.add(null);
+            values.add(null);
+        }
+        int size = 0;
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i) == null) values.set(i, new Expr.Literal(null));
+            if (conditions.get(i) != null) size += conditions.get(i).accept(SIZE);
+            size += values.get(i).accept(SIZE);
+            if (size > MAX_SIZE) return null;
+        }
+        String[] parameters = new String[argumentCount];
+        for (int i = 0; i < argumentCount; i++) parameters[i] = declaration.parameters.get(i).lexeme;
+        return new Plan(function, parameters, conditions.toArray(new Expr[0]), values.toArray(new Expr[0]));
+    }
+
+    /**
+     * The return statement that is, or is alone in, the statement.
+     */
+    private static Stmt returnOf(Stmt statement) {
+        while (statement instanceof Stmt.Block block && block.statements.size() == 1) {
+            statement = block.statements.get(0);
+        }
+        return statement instanceof Stmt.Return ? statement : null;
+    }
+
+    // Counts the nodes in an expression, counting a call as too many.
+    private static final Expr.Visitor<Integer> SIZE = new Expr.Visitor<>() {
+        @Override
+        public Integer visitUnary(Expr.Unary expr) {
+            return 1 + expr.right.accept(this);
+        }
+
+        @Override
+        public Integer visitBinary(Expr.Binary expr) {
+            return 1 + expr.left.accept(this) + expr.right.accept(this);
+        }
+
+        @Override
+        public Integer visitLiteral(Expr.Literal expr) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitGrouping(Expr.Grouping expr) {
+            return 1 + expr.expression.accept(this);
+        }
+
+        @Override
+        public Integer visitTernary(Expr.Ternary expr) {
+            return 1 + expr.left.accept(this) + expr.mid.accept(this) + expr.right.accept(this);
+        }
+
+        @Override
+        public Integer visitVariable(Expr.Variable variable) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitAssignment(Expr.Assign assign) {
+            return 1 + assign.value.accept(this);
+        }
+
+        @Override
+        public Integer visitLogicalOperator(Expr.Logical logical) {
+            return 1 + logical.left.accept(this) + logical.right.accept(this);
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call call) {
+            return MAX_SIZE + 1;
+        }
+
+        @Override
+        public Integer visitGetExpr(Expr.Get get) {
+            return 1 + get.object.accept(this);
+        }
+
+        @Override
+        public Integer visitSetExpr(Expr.Set set) {
+            return 1 + set.object.accept(this) + set.value.accept(this);
+        }
+
+        @Override
+        public Integer visitThisExpr(Expr.This thisExpr) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitSuperExpr(Expr.Super superExpr) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitFusedBinary(Expr.FusedBinary fused) {
+            return fused.original.accept(this);
+        }
+
+        @Override
+        public Integer visitCompoundAssign(Expr.CompoundAssign compound) {
+            return compound.original.accept(this);
+        }
+
+        @Override
+        public Integer visitProbe(Expr.Probe probe) {
+            return probe.expression.accept(this);
+        }
+    };
+}
@@ -0,0 +1,356 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lets tools such as debuggers and coverage observe a program as it runs.
+ * Before the program runs, {@link #instrument} rewrites its tree so that
+ * each node an attached listener asks for is wrapped in a probe node that
+ * reports to it. Nothing else changes: subtrees no listener is interested
+ * in are the same objects as before, so they run exactly as they would with
+ * no tools attached, and the interpreter has no checks for tools anywhere
+ * else. Modules loaded by `import` aren't instrumented.
+ */
+final class Instrumentation {
+    /**
+     * Receives events for the nodes it asks for. Calls are reported as
+     * events on {@link Expr.Call} expressions. Listeners may be called from
+     * coroutine and parallel task threads.
+     */
+    interface Listener {
+        default boolean instruments(Stmt statement) {
+            return false;
+        }
+
+        default boolean instruments(Expr expression) {
+            return false;
+        }
+
+        /**
+         * Before an instrumented statement runs.
+         */
+        default void onStatement(Stmt statement, int line) {
+        }
+
+        /**
+         * Before an instrumented expression is evaluated.
+         */
+        default void onEnter(Expr expression, int line) {
+        }
+
+        /**
+         * After an instrumented expression is evaluated, unless evaluating it
+         * threw a runtime error or returned from the enclosing function.
+         */
+        default void onExit(Expr expression, int line, Object value) {
+        }
+    }
+
+    private final List<Listener> listeners = new ArrayList<>();
+
+    void attach(Listener listener) {
+        listeners.add(listener);
+    }
+
+    boolean isEmpty() {
+        return listeners.isEmpty();
+    }
+
+    /**
+     * Returns the statements with probes for every attached listener. Lazily
+     * parsed function bodies are built so that they can be instrumented too.
+     */
+    List<Stmt> instrument(List<Stmt> statements) {
+        for (Listener listener : listeners) statements = new Rewriter(listener).statements(statements);
+        return statements;
+    }
+
+    /**
+     * Copies the nodes on the path to each instrumented one and shares the rest.
+     */
+    private static class Rewriter implements Expr.Visitor<Expr>, Stmt.Visitor<Void> {
+        private final Listener listener;
+        // Result of the statement visited last, since statement visitors return Void.
+        private Stmt rewritten;
+        // Expressions without tokens of their own, like literals, are reported at their statement's line.
+        private int statementLine;
+
+        Rewriter(Listener listener) {
+            this.listener = listener;
+        }
+
+        List<Stmt> statements(List<Stmt> statements) {
+            List<Stmt> result = null;
+            for (int i = 0; i < statements.size(); i++) {
+                Stmt statement = statements.get(i);
+                Stmt copy = statement(statement);
+                if (copy != statement && result == null) result = new ArrayList<>(statements.subList(0, i));
+                if (result != null) result.add(copy);
+            }
+            return result != null ? result : statements;
+        }
+
+        private Stmt statement(Stmt statement) {
+            if (statement == null) return null;
+            int enclosingLine = statementLine;
+            statementLine = statement.line;
+            statement.accept(this);
+            statementLine = enclosingLine;
+            Stmt copy = rewritten;
+            if (copy != statement) copy.line = statement.line;
+            if (statement instanceof Stmt.Probe) return copy;
+            return listener.instruments(statement) ? new Stmt.Probe(copy, listener) : copy;
+        }
+
+        private Expr expression(Expr expression) {
+            if (expression == null) return null;
+            Expr copy = expression.accept(this);
+            // Fused nodes are unfused when part of them is instrumented, so listeners never see them,
+            // and other listeners' probes are looked through rather than instrumented themselves.
+            if (expression instanceof Expr.FusedBinary || expression instanceof Expr.CompoundAssign
+                    || expression instanceof Expr.Probe) {
+                return copy;
+            }
+            return listener.instruments(expression) ? new Expr.Probe(copy, listener, line(expression)) : copy;
+        }
+
+        private int line(Expr expression) {
+            if (expression instanceof Expr.Unary unary) return unary.operator.line;
+            if (expression instanceof Expr.Binary binary) return binary.operator.line;
+            if (expression instanceof Expr.Logical logical) return logical.operator.line;
+            if (expression instanceof Expr.Ternary ternary) return ternary.opOne.line;
+            if (expression instanceof Expr.Grouping grouping) return line(grouping.expression);
+            if (expression instanceof Expr.Variable variable) return variable.identifier.line;
+            if (expression instanceof Expr.Assign assign) return assign.var.line;
+            if (expression instanceof Expr.Call call) return call.paren.line;
+            if (expression instanceof Expr.Get get) return get.name.line;
+            if (expression instanceof Expr.Set set) return set.name.line;
+            if (expression instanceof Expr.This thisExpr) return thisExpr.keyword.line;
+            if (expression instanceof Expr.Super superExpr) return superExpr.keyword.line;
+            if (expression instanceof Expr.Probe probe) return probe.line;
+            return statementLine;
+        }
+
+        private Stmt.Function function(Stmt.Function function) {
+            int enclosingLine = statementLine;
+            statementLine = function.line;
+            List<Stmt> body = function.body();
+            List<Stmt> copy = statements(body);
+            statementLine = enclosingLine;
+            if (copy == body) return function;
+            Stmt.Function rewrittenFunction = new Stmt.Function(function.fnName, function.parameters, copy);
+            rewrittenFunction.line = function.line;
+            rewrittenFunction.captures = function.captures;
+            rewrittenFunction.captureDistances = function.captureDistances;
+            rewrittenFunction.localFrames = function.localFrames;
+            return rewrittenFunction;
+        }
+
+        @Override
+        public Expr visitUnary(Expr.Unary expr) {
+            Expr right = expression(expr.right);
+            return right == expr.right ? expr : new Expr.Unary(expr.operator, right);
+        }
+
+        @Override
+        public Expr visitBinary(Expr.Binary expr) {
+            Expr left = expression(expr.left);
+            Expr right = expression(expr.right);
+            if (left == expr.left && right == expr.right) return expr;
+            Expr.Binary copy = new Expr.Binary(left, expr.operator, right);
+            copy.numeric = expr.numeric;
+            return copy;
+        }
+
+        @Override
+        public Expr visitLiteral(Expr.Literal expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitGrouping(Expr.Grouping expr) {
+            Expr inner = expression(expr.expression);
+            return inner == expr.expression ? expr : new Expr.Grouping(inner);
+        }
+
+        @Override
+        public Expr visitTernary(Expr.Ternary expr) {
+            Expr left = expression(expr.left);
+            Expr mid = expression(expr.mid);
+            Expr right = expression(expr.right);
+            if (left == expr.left && mid == expr.mid && right == expr.right) return expr;
+            return new Expr.Ternary(left, expr.opOne, mid, expr.opTwo, right);
+        }
+
+        @Override
+        public Expr visitVariable(Expr.Variable variable) {
+            return variable;
+        }
+
+        @Override
+        public Expr visitAssignment(Expr.Assign assign) {
+            Expr value = expression(assign.value);
+            if (value == assign.value) return assign;
+            Expr.Assign copy = new Expr.Assign(assign.var, value);
+            copy.global = assign.global;
+            return copy;
+        }
+
+        @Override
+        public Expr visitLogicalOperator(Expr.Logical logical) {
+            Expr left = expression(logical.left);
+            Expr right = expression(logical.right);
+            if (left == logical.left && right == logical.right) return logical;
+            return new Expr.Logical(left, logical.operator, right);
+        }
+
+        @Override
+        public Expr visitCallExpr(Expr.Call call) {
+            Expr callee = expression(call.callee);
+            boolean changed = callee != call.callee;
+            List<Expr> args = new ArrayList<>(call.args.size());
+            for (Expr arg : call.args) {
+                Expr copy = expression(arg);
+                changed |= copy != arg;
+                args.add(copy);
+            }
+            return changed ? new Expr.Call(callee, call.paren, args) : call;
+        }
+
+        @Override
+        public Expr visitGetExpr(Expr.Get get) {
+            Expr object = expression(get.object);
+            return object == get.object ? get : new Expr.Get(object, get.name);
+        }
+
+        @Override
+        public Expr visitSetExpr(Expr.Set set) {
+            Expr object = expression(set.object);
+            Expr value = expression(set.value);
+            if (object == set.object && value == set.value) return set;
+            return new Expr.Set(object, set.name, value);
+        }
+
+        @Override
+        public Expr visitThisExpr(Expr.This thisExpr) {
+            return thisExpr;
+        }
+
+        @Override
+        public Expr visitSuperExpr(Expr.Super superExpr) {
+            return superExpr;
+        }
+
+        @Override
+        public Expr visitFusedBinary(Expr.FusedBinary fused) {
+            Expr original = expression(fused.original);
+            return original == fused.original ? fused : original;
+        }
+
+        @Override
+        public Expr visitCompoundAssign(Expr.CompoundAssign compound) {
+            Expr original = expression(compound.original);
+            return original == compound.original ? compound : original;
+        }
+
+        @Override
+        public Expr visitProbe(Expr.Probe probe) {
+            Expr inner = expression(probe.expression);
+            return inner == probe.expression ? probe : new Expr.Probe(inner, probe.listener, probe.line);
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression expressionStatement) {
+            Expr expression = expression(expressionStatement.expression);
+            rewritten = expression == expressionStatement.expression
+                    ? expressionStatement
+                    : new Stmt.Expression(expression);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print printStatement) {
+            Expr expression = expression(printStatement.expression);
+            rewritten = expression == printStatement.expression ? printStatement : new Stmt.Print(expression);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var var) {
+            Expr initializer = expression(var.initializer);
+            rewritten = initializer == var.initializer ? var : new Stmt.Var(var.name, initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block block) {
+            List<Stmt> statements = statements(block.statements);
+            rewritten = statements == block.statements ? block : new Stmt.Block(statements);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If ifStmt) {
+            Expr condition = expression(ifStmt.condition);
+            Stmt thenStatements = statement(ifStmt.thenStatements);
+            Stmt elseStatements = statement(ifStmt.elseStatements);
+            rewritten = condition == ifStmt.condition && thenStatements == ifStmt.thenStatements
+                    && elseStatements == ifStmt.elseStatements
+                    ? ifStmt
+                    : new Stmt.If(condition, thenStatements, elseStatements);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStatement(Stmt.While whileStmt) {
+            Expr condition = expression(whileStmt.condition);
+            Stmt body = statement(whileStmt.whileBlock);
+            rewritten = condition == whileStmt.condition && body == whileStmt.whileBlock
+                    ? whileStmt
+                    : new Stmt.While(whileStmt.keyword, condition, body);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function function) {
+            rewritten = function(function);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return returnStmt) {
+            Expr value = expression(returnStmt.returnExpression);
+            rewritten = value == returnStmt.returnExpression
+                    ? returnStmt
+                    : new Stmt.Return(returnStmt.returnKeyword, value);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class classStmt) {
+            boolean changed = false;
+            List<Stmt.Function> methods = new ArrayList<>(classStmt.methods.size());
+            for (Stmt.Function method : classStmt.methods) {
+                Stmt.Function copy = function(method);
+                changed |= copy != method;
+                methods.add(copy);
+            }
+            rewritten = changed ? new Stmt.Class(classStmt.name, classStmt.superclass, methods) : classStmt;
+            return null;
+        }
+
+        @Override
+        public Void visitImportStmt(Stmt.Import importStmt) {
+            rewritten = importStmt;
+            return null;
+        }
+
+        @Override
+        public Void visitProbeStmt(Stmt.Probe probe) {
+            Stmt inner = statement(probe.statement);
+            rewritten = inner == probe.statement ? probe : new Stmt.Probe(inner, probe.listener);
+            return null;
+        }
+    }
+}
@@ -1,39 +1,237 @@
 package com.craftinginterpreters.lox;
 
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
-    final Environment globals = new Environment();
-    private Environment environment = globals;
+    static final int DEFAULT_MAX_DEPTH = 10_000;
+    /**
+     * The Java stack one nested Lox call needs, with room to spare. Measured
+     * with the JVM interpreting rather than compiling the evaluator, which
+     * makes its frames largest: about 1.7 KB for a plain recursive function,
+     * 2.5 KB for a method, and 4.8 KB for a call made from inside a block, a
+     * loop and a few nested operators. A single expression nested much deeper
+     * than that can still need more.
+     */
+    static final long STACK_BYTES_PER_CALL = 8192;
 
-    Interpreter() {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public Object call(Interpreter interpreter, List<Object> args) {
-                return (double) System.currentTimeMillis() / 1000.0;
-            }
+    /**
+     * The stack a thread needs for {@code maxDepth} nested calls, with some
+     * to spare for whatever started them.
+     */
+    static long stackSize(int maxDepth) {
+        return (maxDepth + 64L) * STACK_BYTES_PER_CALL;
+    }
 
-            @Override
-            public int arity() {
-                return 0;
-            }
+    // Rough sizes charged to the budget: an Environment with its map, and a LoxFunction.
+    private static final long FRAME_BYTES = 96;
+    private static final long CLOSURE_BYTES = 32;
+    // Frames kept for reuse beyond this are left to the garbage collector.
+    private static final int MAX_POOLED_FRAMES = 1024;
+
+    final GlobalEnvironment globals;
+    final OutputSink output;
+    // How many Lox calls may be nested before a call fails with "Stack overflow.".
+    int maxDepth = DEFAULT_MAX_DEPTH;
+    private int depth;
+    // The depth at which the stack of the thread running this is full, and
+    // further calls move to one of deepCalls' threads.
+    private int stackLimit = Integer.MAX_VALUE;
+    private final DeepCalls deepCalls;
+    // The callee and call-site line of each call in progress, for runtime error traces.
+    private Object[] frameCallees = new Object[16];
+    private int[] frameLines = new int[16];
+    // Relative imports are looked up here: the directory of the running script or module.
+    Path moduleDirectory = Paths.get("").toAbsolutePath();
+    // Set to memoize calls to pure functions.
+    Memoizer memoizer;
+    // Loop iterations, calls and allocations are charged to this.
+    ResourceBudget budget = ResourceBudget.unlimited();
+    // What's left of the slices taken from the budget.
+    private long instructions;
+    private long bytes;
+    Environment environment;
+    // Frames of returned calls whose functions have local frames, ready for reuse.
+    private Environment[] framePool = new Environment[16];
+    private int pooledFrames;
+    // Non-zero while running as a parallel task; see Environment.startParallelSection().
+    final long taskGeneration;
+    // Runs programs encoded as a FlatAst; created on first use.
+    private FlatInterpreter flat;
+
+    Interpreter(OutputSink output) {
+        globals = new GlobalEnvironment();
+        environment = globals;
+        taskGeneration = 0;
+        this.output = output;
+        deepCalls = new DeepCalls();
+        Natives.install(globals);
+    }
+
+    private Interpreter(Interpreter parent, long taskGeneration) {
+        this.globals = parent.globals;
+        this.environment = globals;
+        this.taskGeneration = taskGeneration;
+        this.output = parent.output;
+        this.memoizer = parent.memoizer;
+        this.maxDepth = parent.maxDepth;
+        this.budget = parent.budget;
+        this.moduleDirectory = parent.moduleDirectory;
+        this.deepCalls = parent.deepCalls;
+    }
+
+    /**
+     * Creates an interpreter sharing this one's globals, for running a function
+     * on another thread as part of the parallel section started at {@code generation}.
+     * It starts out inside this one's calls, which wait for the section to end,
+     * so depth limits and error traces count them too.
+     */
+    Interpreter forParallelTask(long generation) {
+        Interpreter task = new Interpreter(this, generation);
+        task.frameCallees = Arrays.copyOf(frameCallees, frameCallees.length);
+        task.frameLines = Arrays.copyOf(frameLines, frameLines.length);
+        task.depth = depth;
+        task.stackLimit = depth + PooledThreadStack.CALLS;
+        return task;
+    }
+
+    /**
+     * The line the innermost call was made from, e.g. for a native to make
+     * calls of its own as if from there.
+     */
+    int callLine() {
+        return depth > 0 ? frameLines[depth - 1] : 0;
+    }
+
+    boolean isParallelTask() {
+        return taskGeneration != 0;
+    }
+
+    /**
+     * Creates an interpreter sharing this one's globals, for running a coroutine.
+     */
+    Interpreter forCoroutine() {
+        Interpreter coroutine = new Interpreter(this, 0);
+        coroutine.stackLimit = PooledThreadStack.CALLS;
+        return coroutine;
+    }
 
-            @Override
-            public String toString() {
-                return "<native fn>";
+    /**
+     * How many calls fit on the stack of a thread the JVM sizes from -Xss,
+     * such as the virtual threads coroutines run on and the fork-join workers
+     * running parallel tasks. Only the main script's thread is sized from
+     * --max-depth, so calls nested deeper than this on those threads go on
+     * with {@link DeepCalls}. That way running out of stack is never a
+     * StackOverflowError, which could be thrown anywhere, even in the middle
+     * of a finally block.
+     */
+    private static final class PooledThreadStack {
+        // Calls' worth of stack left for the thread's own frames and the natives that started it.
+        private static final int RESERVED_CALLS = 8;
+        static final int CALLS = (int) Math.max(1, stackBytes() / STACK_BYTES_PER_CALL - RESERVED_CALLS);
+
+        private static long stackBytes() {
+            try {
+                HotSpotDiagnosticMXBean vm = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+                long kilobytes = Long.parseLong(vm.getVMOption("ThreadStackSize").getValue());
+                if (kilobytes > 0) return kilobytes * 1024;
+            } catch (RuntimeException ignored) {
+                // Not a HotSpot VM, so fall back to its usual default.
             }
-        });
+            return 1024 * 1024;
+        }
     }
 
     void interpret(List<Stmt> statements) {
+        Scheduler.enter();
         try {
             executeStatements(statements);
         } catch (RuntimeError e) {
             Lox.runtimeError(e);
+        } finally {
+            Scheduler.exit();
         }
     }
 
+    /**
+     * Runs a program from its flat encoding rather than its object tree.
+     */
+    void interpret(FlatAst ast) {
+        Scheduler.enter();
+        try {
+            flat().executeStatements(ast, ast.root);
+        } catch (RuntimeError e) {
+            Lox.runtimeError(e);
+        } finally {
+            Scheduler.exit();
+        }
+    }
+
+    /**
+     * Charges a loop iteration or a call, reporting an exhausted budget at {@code line}.
+     */
+    void countInstruction(int line) {
+        if (--instructions < 0) instructions = budget.takeInstructions(line) - 1;
+    }
+
+    void chargeAllocation(long size, int line) {
+        bytes -= size;
+        while (bytes < 0) bytes += budget.takeBytes(line);
+    }
+
+    /**
+     * Gives back what's left of this interpreter's slices, once it has
+     * finished running a coroutine or parallel task.
+     */
+    void releaseBudget() {
+        budget.giveBack(instructions, bytes);
+        instructions = 0;
+        bytes = 0;
+    }
+
+    /**
+     * Charges for the environment a block or call creates.
+     */
+    void chargeFrame(int line) {
+        chargeAllocation(FRAME_BYTES, line);
+    }
+
+    void chargeClosure(int line) {
+        chargeAllocation(CLOSURE_BYTES, line);
+    }
+
+    /**
+     * Returns an environment for a call to a function with local frames,
+     * recycling one from an earlier call if there is one.
+     */
+    Environment acquireFrame(Environment closure) {
+        if (pooledFrames == 0) return new Environment(closure);
+        Environment frame = framePool[--pooledFrames];
+        framePool[pooledFrames] = null;
+        frame.reuse(closure);
+        return frame;
+    }
+
+    void releaseFrame(Environment frame) {
+        frame.clear();
+        if (pooledFrames == MAX_POOLED_FRAMES) return;
+        if (pooledFrames == framePool.length) framePool = Arrays.copyOf(framePool, pooledFrames * 2);
+        framePool[pooledFrames++] = frame;
+    }
+
+    FlatInterpreter flat() {
+        if (flat == null) flat = new FlatInterpreter(this);
+        return flat;
+    }
+
     private void executeStatements(List<Stmt> statements) {
         for (Stmt statement : statements) {
             executeStatement(statement);
@@ -44,7 +242,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         statement.accept(this);
     }
 
-    private String stringify(Object value) {
+    static String stringify(Object value) {
         if (value == null) return "nil";
 
         if (value instanceof Double) {
@@ -60,12 +258,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitUnary(Expr.Unary expr) {
-        Object eval = evaluate(expr.right);
-        return switch (expr.operator.type) {
-            case BANG -> !isTruthy(eval);
+        return applyUnary(expr.operator.type, expr.operator.line, evaluate(expr.right));
+    }
+
+    Object applyUnary(TokenType operator, int line, Object operand) {
+        return switch (operator) {
+            case BANG -> !isTruthy(operand);
             case MINUS -> {
-                checkNumberOperands(expr.operator, eval);
-                yield -(double) eval;
+                checkNumberOperands(line, operand);
+                yield -(double) operand;
             }
             default -> null;
         };
@@ -75,49 +276,115 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitBinary(Expr.Binary expr) {
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
-        return switch (expr.operator.type) {
+        if (expr.numeric && left instanceof Double a && right instanceof Double b) {
+            return applyNumeric(expr.operator.type, expr.operator.line, a, b);
+        }
+        expr.observe(left, right);
+        return applyBinary(expr.operator.type, expr.operator.line, left, right);
+    }
+
+    @Override
+    public Object visitFusedBinary(Expr.FusedBinary fused) {
+        Object left = fused.leftVariable != null ? visitVariable(fused.leftVariable) : fused.leftConstant;
+        Object right = fused.rightVariable != null ? visitVariable(fused.rightVariable) : fused.rightConstant;
+        if (fused.original.numeric && left instanceof Double a && right instanceof Double b) {
+            return applyNumeric(fused.original.operator.type, fused.original.operator.line, a, b);
+        }
+        fused.original.observe(left, right);
+        return applyBinary(fused.original.operator.type, fused.original.operator.line, left, right);
+    }
+
+    @Override
+    public Object visitProbe(Expr.Probe probe) {
+        probe.listener.onEnter(probe.expression, probe.line);
+        Object value = evaluate(probe.expression);
+        probe.listener.onExit(probe.expression, probe.line, value);
+        return value;
+    }
+
+    @Override
+    public Object visitCompoundAssign(Expr.CompoundAssign compound) {
+        Object left = visitVariable(compound.target);
+        Object right = compound.constantOperand ? compound.constant : evaluate(compound.operand);
+        Expr.Binary operation = compound.operation();
+        Object value;
+        if (operation.numeric && left instanceof Double a && right instanceof Double b) {
+            value = applyNumeric(compound.operator.type, compound.operator.line, a, b);
+        } else {
+            operation.observe(left, right);
+            value = applyBinary(compound.operator.type, compound.operator.line, left, right);
+        }
+        store(compound.original, value);
+        return value;
+    }
+
+    /**
+     * Applies an arithmetic or comparison operator to numbers, which needs
+     * none of the operand checks {@link #applyBinary} makes.
+     */
+    Object applyNumeric(TokenType operator, int line, double left, double right) {
+        return switch (operator) {
+            case MINUS -> left - right;
+            case STAR -> left * right;
+            case SLASH -> {
+                if (right == 0) throw new RuntimeError(line, "Cannot divide by zero.");
+                yield left / right;
+            }
+            case PLUS -> left + right;
+            case LESS -> left < right;
+            case LESS_EQUAL -> left <= right;
+            case GREATER -> left > right;
+            case GREATER_EQUAL -> left >= right;
+            default -> applyBinary(operator, line, left, right);
+        };
+    }
+
+    Object applyBinary(TokenType operator, int line, Object left, Object right) {
+        return switch (operator) {
             case MINUS -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(line, left, right);
                 yield (double) left - (double) right;
             }
             case STAR -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(line, left, right);
                 yield (double) left * (double) right;
             }
             case SLASH -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(line, left, right);
                 double denominator = (double) right;
                 if (denominator == 0) {
-                    throw new RuntimeError(expr.operator, "Cannot divide by zero.");
+                    throw new RuntimeError(line, "Cannot divide by zero.");
                 }
                 yield (double) left / (double) right;
             }
             case PLUS -> {
                 if (left instanceof String || right instanceof String) {
-                    yield stringify(left) + stringify(right);
+                    String result = stringify(left) + stringify(right);
+                    chargeAllocation(40 + result.length(), line);
+                    yield result;
                 }
                 if (left instanceof Double && right instanceof Double) {
                     yield (double) left + (double) right;
                 }
                 throw new RuntimeError(
-                        expr.operator,
+                        line,
                         "Both operands should either be Strings or Numbers"
                 );
             }
             case LESS -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(line, left, right);
                 yield (double) left < (double) right;
             }
             case LESS_EQUAL -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(line, left, right);
                 yield (double) left <= (double) right;
             }
             case GREATER -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(line, left, right);
                 yield (double) left > (double) right;
             }
             case GREATER_EQUAL -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(line, left, right);
                 yield (double) left >= (double) right;
             }
             case EQUAL_EQUAL -> isEqual(left, right);
@@ -145,16 +412,39 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariable(Expr.Variable variable) {
+        if (variable.global) {
+            GlobalEnvironment.Cell cell = variable.cell;
+            if (cell == null || cell.owner != globals) {
+                cell = globals.cell(variable.identifier);
+                variable.cell = cell;
+            }
+            return cell.value;
+        }
         return environment.get(variable.identifier);
     }
 
     @Override
     public Object visitAssignment(Expr.Assign assign) {
         Object rValue = evaluate(assign.value);
-        environment.assign(assign.var, rValue);
+        store(assign, rValue);
         return rValue;
     }
 
+    private void store(Expr.Assign assign, Object rValue) {
+        if (assign.global && taskGeneration == 0) {
+            GlobalEnvironment.Cell cell = assign.cell;
+            if (cell == null || cell.owner != globals) {
+                cell = globals.cell(assign.var);
+                assign.cell = cell;
+            }
+            cell.value = rValue;
+        } else if (taskGeneration == 0) {
+            environment.assign(assign.var, rValue);
+        } else {
+            environment.assignInTask(assign.var, rValue, taskGeneration);
+        }
+    }
+
     @Override
     public Object visitLogicalOperator(Expr.Logical logical) {
         Object left = evaluate(logical.left);
@@ -169,21 +459,160 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitCallExpr(Expr.Call call) {
         Object callee = evaluate(call.callee);
+        // Memoized functions are left to the memoizer.
+        if (memoizer == null) {
+            InlineCache inline = call.inline;
+            if (inline == null) call.inline = inline = new InlineCache();
+            InlineCache.Plan plan = inline.plan;
+            if (plan != null) {
+                if (plan.function == callee) return callInlined(plan, call);
+                inline.deoptimize();
+            }
+            inline.profile(callee, call.args.size());
+        }
         List<Object> args = call.args.stream().map(this::evaluate).toList();
+        return call(callee, args, call.paren.line);
+    }
+
+    private Object callInlined(InlineCache.Plan plan, Expr.Call call) {
+        Environment frame = plan.function.newFrame(this);
+        try {
+            for (int i = 0; i < plan.parameters.length; i++) {
+                frame.define(plan.parameters[i], evaluate(call.args.get(i)));
+            }
+            return runInlined(plan, frame, call.paren.line);
+        } finally {
+            plan.function.releaseFrame(this, frame);
+        }
+    }
+
+    /**
+     * Runs an inlined function's body in a frame holding its arguments, with
+     * the checks and bookkeeping {@link #call} does for a normal call.
+     */
+    Object runInlined(InlineCache.Plan plan, Environment frame, int line) {
+        enterCall(plan.function, line);
+        Environment previous = environment;
+        try {
+            environment = frame;
+            for (int i = 0; i < plan.values.length; i++) {
+                Expr condition = plan.conditions[i];
+                if (condition == null || isTruthy(evaluate(condition))) return evaluate(plan.values[i]);
+            }
+            return null;
+        } catch (RuntimeError e) {
+            if (!e.hasTrace()) e.recordTrace(frameCallees, frameLines, depth);
+            throw e;
+        } finally {
+            environment = previous;
+            frameCallees[--depth] = null;
+        }
+    }
+
+    /**
+     * Calls a Lox value, reporting errors at the line of the call's closing paren.
+     */
+    Object call(Object callee, List<Object> args, int line) {
         if (!(callee instanceof LoxCallable function)) {
-            throw new RuntimeError(call.paren, "Can only call functions and classes");
+            throw new RuntimeError(line, "Can only call functions and classes");
         }
         if (args.size() != function.arity()) {
-            throw new RuntimeError(call.paren,
+            throw new RuntimeError(line,
                     "Expected " + function.arity() + " arguments but received " + args.size());
         }
-        return function.call(this, args);
+        enterCall(function, line);
+        try {
+            if (depth > stackLimit) return callOnDeepStack(function, args);
+            return function.call(this, args);
+        } catch (RuntimeError e) {
+            if (!e.hasTrace()) e.recordTrace(frameCallees, frameLines, depth);
+            throw e;
+        } catch (NativeError e) {
+            throw new RuntimeError(line, e.getMessage());
+        } finally {
+            frameCallees[--depth] = null;
+        }
+    }
+
+    private Object callOnDeepStack(LoxCallable function, List<Object> args) {
+        int limit = stackLimit;
+        stackLimit = Integer.MAX_VALUE;
+        try {
+            return deepCalls.run(maxDepth, () -> function.call(this, args));
+        } finally {
+            stackLimit = limit;
+        }
+    }
+
+    private void enterCall(LoxCallable function, int line) {
+        if (depth == maxDepth) throw new RuntimeError(line, "Stack overflow.");
+        countInstruction(line);
+        chargeFrame(line);
+        if (depth == frameCallees.length) {
+            frameCallees = Arrays.copyOf(frameCallees, depth * 2);
+            frameLines = Arrays.copyOf(frameLines, depth * 2);
+        }
+        frameCallees[depth] = function;
+        frameLines[depth] = line;
+        depth++;
+    }
+
+    @Override
+    public Object visitGetExpr(Expr.Get get) {
+        Object object = evaluate(get.object);
+        if (!(object instanceof LoxInstance instance)) {
+            throw new RuntimeError(get.name, "Only instances have properties.");
+        }
+        PropertyCache cache = get.cache;
+        if (cache == null || cache.shape != instance.shape) {
+            cache = PropertyCache.forGet(instance.shape, get.name.lexeme);
+            get.cache = cache;
+        }
+        if (cache.slot >= 0) return instance.fields[cache.slot];
+        if (cache.method != null) return cache.method.bind(instance);
+        throw new RuntimeError(get.name, "Undefined property '" + get.name.lexeme + "'.");
+    }
+
+    @Override
+    public Object visitSetExpr(Expr.Set set) {
+        Object object = evaluate(set.object);
+        if (!(object instanceof LoxInstance instance)) {
+            throw new RuntimeError(set.name, "Only instances have fields.");
+        }
+        Object value = evaluate(set.value);
+        PropertyCache cache = set.cache;
+        if (cache == null || cache.shape != instance.shape) {
+            cache = PropertyCache.forSet(instance.shape, set.name.lexeme);
+            set.cache = cache;
+        }
+        if (cache.transition == null) {
+            instance.fields[cache.slot] = value;
+        } else {
+            instance.addField(cache.transition, value);
+        }
+        return value;
+    }
+
+    @Override
+    public Object visitThisExpr(Expr.This thisExpr) {
+        return environment.get(thisExpr.keyword);
+    }
+
+    @Override
+    public Object visitSuperExpr(Expr.Super superExpr) {
+        LoxClass superclass = (LoxClass) environment.get(superExpr.keyword);
+        LoxInstance instance = (LoxInstance) environment.find("this");
+        LoxFunction method = superclass.findMethod(superExpr.method.lexeme);
+        if (method == null) {
+            throw new RuntimeError(superExpr.method, "Undefined property '" + superExpr.method.lexeme + "'.");
+        }
+        return method.bind(instance);
     }
 
     /**
      * Everything except null and false is true.
      */
-    private boolean isTruthy(Object value) {
+    boolean isTruthy(Object value) {
         if (value == null) return false;
         if (value instanceof Boolean) return (boolean) value;
         return true;
@@ -196,14 +625,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return first.equals(second);
     }
 
-    private void checkNumberOperands(Token token, Object value) {
+    private void checkNumberOperands(int line, Object value) {
         if (value instanceof Double) return;
-        throw new RuntimeError(token, "Operand must be a number.");
+        throw new RuntimeError(line, "Operand must be a number.");
     }
 
-    private void checkNumberOperands(Token token, Object left, Object right) {
+    private void checkNumberOperands(int line, Object left, Object right) {
         if (left instanceof Double && right instanceof Double) return;
-        throw new RuntimeError(token, "Operands must be numbers.");
+        throw new RuntimeError(line, "Operands must be numbers.");
     }
 
     @Override
@@ -214,7 +643,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitPrintStmt(Stmt.Print printStatement) {
-        System.out.println(stringify(evaluate(printStatement.expression)));
+        output.println(stringify(evaluate(printStatement.expression)));
         return null;
     }
 
@@ -226,6 +655,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitBlockStmt(Stmt.Block block) {
+        chargeFrame(block.line);
         executeBlock(block.statements, new Environment(environment));
         return null;
     }
@@ -243,19 +673,106 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitWhileStatement(Stmt.While whileStmt) {
-        while (isTruthy(evaluate(whileStmt.condition))) {
-            executeStatement(whileStmt.whileBlock);
+        long iterations = 0;
+        try {
+            while (isTruthy(evaluate(whileStmt.condition))) {
+                countInstruction(whileStmt.line);
+                iterations++;
+                executeStatement(whileStmt.whileBlock);
+            }
+        } finally {
+            whileStmt.iterations += iterations;
         }
         return null;
     }
 
     @Override
     public Void visitFunctionStmt(Stmt.Function function) {
-        LoxFunction fun = new LoxFunction(function, environment);
+        chargeClosure(function.fnName.line);
+        LoxFunction fun = new LoxFunction(function, closure(function, environment));
         environment.define(function.fnName.lexeme, fun);
         return null;
     }
 
+    /**
+     * Creates the environment a function defined in {@code defining} closes
+     * over: just the variables it uses, on top of the globals.
+     */
+    Environment closure(Stmt.Function function, Environment defining) {
+        String[] captures = function.captures;
+        if (captures == null) return defining;
+        Environment closure = new Environment(globals);
+        for (int i = 0; i < captures.length; i++) {
+            defining.capture(captures[i], function.captureDistances[i], closure);
+        }
+        return closure;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class classStmt) {
+        LoxClass superclass = null;
+        if (classStmt.superclass != null) {
+            Object value = evaluate(classStmt.superclass);
+            if (!(value instanceof LoxClass)) {
+                throw new RuntimeError(classStmt.superclass.identifier, "Superclass must be a class.");
+            }
+            superclass = (LoxClass) value;
+        }
+        environment.define(classStmt.name.lexeme, null);
+
+        Environment methodEnvironment = environment;
+        if (superclass != null) {
+            methodEnvironment = new Environment(environment);
+            methodEnvironment.define("super", superclass);
+        }
+        Map<String, LoxFunction> methods = new HashMap<>();
+        for (Stmt.Function method : classStmt.methods) {
+            String name = method.fnName.lexeme;
+            methods.put(name, new LoxFunction(method, closure(method, methodEnvironment), name.equals("init")));
+        }
+        environment.assign(classStmt.name, new LoxClass(classStmt.name.lexeme, superclass, methods));
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import importStmt) {
+        importModule((String) importStmt.path.literal, importStmt.keyword.line, importStmt.path.line);
+        return null;
+    }
+
+    /**
+     * Runs a module unless it has already been imported into these globals.
+     */
+    void importModule(String modulePath, int keywordLine, int pathLine) {
+        if (isParallelTask()) {
+            throw new RuntimeError(keywordLine, "Cannot import inside a parallel task.");
+        }
+        Path path = moduleDirectory.resolve(modulePath).toAbsolutePath().normalize();
+        if (!globals.markImported(path)) return;
+
+        List<Stmt> statements;
+        try {
+            statements = ModuleCache.shared.load(path);
+        } catch (ModuleCache.LoadError e) {
+            globals.unmarkImported(path);
+            throw new RuntimeError(pathLine, e.getMessage());
+        }
+        Path enclosingDirectory = moduleDirectory;
+        moduleDirectory = path.getParent();
+        try {
+            executeBlock(statements, globals);
+        } finally {
+            moduleDirectory = enclosingDirectory;
+        }
+    }
+
+    @Override
+    public Void visitProbeStmt(Stmt.Probe probe) {
+        probe.listener.onStatement(probe.statement, probe.line);
+        executeStatement(probe.statement);
+        return null;
+    }
+
     @Override
     public Void visitReturnStmt(Stmt.Return returnStmt) {
         Object value = returnStmt.returnExpression == null ? null : evaluate(returnStmt.returnExpression);
@@ -0,0 +1,31 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/**
+ * `javaStatic(className, methodName, arity)` binds a public static Java method
+ * and returns it as a Lox function:
+ * <pre>
+ *     var hypot = javaStatic("java.lang.Math", "hypot", 2);
+ *     print hypot(3, 4);
+ * </pre>
+ */
+class JavaNatives extends NativeModule {
+    private static final int JAVA_STATIC = 0;
+
+    @Override
+    void install(Environment globals) {
+        define(globals, "javaStatic", 3, JAVA_STATIC);
+    }
+
+    @Override
+    Object call(int id, Interpreter interpreter, List<Object> args) {
+        return switch (id) {
+            case JAVA_STATIC -> JavaStaticFunction.bind(
+                    string(args, 0, "javaStatic"),
+                    string(args, 1, "javaStatic"),
+                    integer(args, 2, "javaStatic"));
+            default -> throw new IllegalArgumentException("Unknown native " + id);
+        };
+    }
+}
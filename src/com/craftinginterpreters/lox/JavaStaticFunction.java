@@ -0,0 +1,368 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A public static Java method callable from Lox. The method is looked up once
+ * and its handle is adapted to take an {@code Object[]} of Lox values and
+ * return a Lox value, with the conversions folded into the handle itself.
+ * Bindings are shared across interpreters, so binding the same method again is
+ * a map lookup and every call is a single {@code invokeExact}.
+ *
+ * <p>When the name is overloaded, every overload with the right arity is kept
+ * and each call picks by the Lox types of its arguments, so
+ * {@code Integer.valueOf(7)} calls {@code valueOf(int)} and
+ * {@code Integer.valueOf("7")} calls {@code valueOf(String)}. Of the overloads
+ * a call's arguments fit, the one needing the cheapest conversions wins, so
+ * {@code Math.abs} of a number calls the {@code double} version.
+ *
+ * <p>Lox numbers convert to any Java numeric type (integral types only accept
+ * whole numbers in range), strings to {@code String}, {@code CharSequence} or a
+ * single {@code char}, and booleans to {@code boolean}. Numeric and character
+ * results convert back to Lox numbers and strings, {@code void} to nil.
+ * Integral results must be exactly representable as Lox numbers. Methods
+ * taking or returning anything else can't be bound, so Java objects never
+ * reach Lox code.
+ */
+public class JavaStaticFunction implements LoxCallable {
+    private static final Map<String, JavaStaticFunction> BINDINGS = new ConcurrentHashMap<>();
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private final String name;
+    private final int arity;
+    private final MethodHandle handle;
+
+    private JavaStaticFunction(String name, int arity, MethodHandle handle) {
+        this.name = name;
+        this.arity = arity;
+        this.handle = handle;
+    }
+
+    static JavaStaticFunction bind(String className, String methodName, int arity) {
+        String key = className + "#" + methodName + "/" + arity;
+        JavaStaticFunction bound = BINDINGS.get(key);
+        if (bound != null) return bound;
+        bound = new JavaStaticFunction(key, arity, dispatch(key, resolve(className, methodName, arity)));
+        JavaStaticFunction raced = BINDINGS.putIfAbsent(key, bound);
+        return raced != null ? raced : bound;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> args) {
+        try {
+            return (Object) handle.invokeExact(args.toArray());
+        } catch (NativeError | RuntimeError e) {
+            throw e;
+        } catch (ClassCastException | WrongMethodTypeException e) {
+            // The method's own exceptions are already NativeErrors, so this came from converting arguments.
+            throw new NativeError("Argument types don't match " + name + ".");
+        } catch (Throwable e) {
+            throw new NativeError(name + " failed: " + e);
+        }
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public String toString() {
+        return "<java fn " + name + ">";
+    }
+
+    /**
+     * Returns the overloads a call could mean, cheapest conversions first.
+     */
+    private static List<Method> resolve(String className, String methodName, int arity) {
+        Class<?> owner;
+        try {
+            owner = Class.forName(className, false, JavaStaticFunction.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new NativeError("Unknown Java class '" + className + "'.");
+        }
+
+        List<Method> overloads = new ArrayList<>();
+        Method unconvertible = null;
+        for (Method method : owner.getMethods()) {
+            if (!method.getName().equals(methodName)) continue;
+            if (!Modifier.isStatic(method.getModifiers())) continue;
+            if (method.getParameterCount() != arity || method.isVarArgs()) continue;
+            if (isConvertible(method)) {
+                overloads.add(method);
+            } else if (unconvertible == null) {
+                unconvertible = method;
+            }
+        }
+        if (overloads.isEmpty() && unconvertible != null) {
+            throw new NativeError("Cannot bind " + unconvertible + ": Lox only passes numbers, strings,"
+                    + " booleans and nil to and from Java.");
+        }
+        if (overloads.isEmpty()) {
+            throw new NativeError("No public static method " + className + "." + methodName
+                    + " taking " + arity + " arguments.");
+        }
+        overloads.sort(Comparator.comparingInt((Method method) -> conversionCost(method))
+                .thenComparing(Method::toString));
+        return overloads;
+    }
+
+    /**
+     * Chains the overloads so that a call runs the first one whose parameters
+     * its arguments' Lox types fit. A method that isn't overloaded is called
+     * directly, leaving mismatches to its argument converters to report.
+     */
+    private static MethodHandle dispatch(String name, List<Method> overloads) {
+        if (overloads.size() == 1) return adapt(overloads.get(0));
+        MethodHandle noMatch = MethodHandles.insertArguments(
+                converter("noOverload", Object.class, String.class, Object[].class), 0, name);
+        MethodHandle chain = noMatch;
+        for (int i = overloads.size() - 1; i >= 0; i--) {
+            Method method = overloads.get(i);
+            MethodHandle test = MethodHandles.insertArguments(
+                    converter("fits", boolean.class, Class[].class, Object[].class), 0,
+                    (Object) method.getParameterTypes());
+            chain = MethodHandles.guardWithTest(test, adapt(method), chain);
+        }
+        return chain;
+    }
+
+    private static boolean isConvertible(Method method) {
+        for (Class<?> type : method.getParameterTypes()) {
+            if (!isLoxType(type) && type != CharSequence.class) return false;
+        }
+        return method.getReturnType() == void.class || isLoxType(method.getReturnType());
+    }
+
+    /**
+     * Whether values of the type convert to and from Lox values: primitives,
+     * their boxes and strings.
+     */
+    private static boolean isLoxType(Class<?> type) {
+        return type != void.class && MethodType.methodType(type).unwrap().returnType().isPrimitive()
+                || type == String.class;
+    }
+
+    private static int conversionCost(Method method) {
+        int cost = 0;
+        for (Class<?> type : method.getParameterTypes()) cost += conversionCost(type);
+        return cost;
+    }
+
+    private static int conversionCost(Class<?> type) {
+        if (type == double.class || type == Double.class) return 0;
+        if (type == String.class || type == boolean.class || type == Boolean.class) return 0;
+        if (type == CharSequence.class) return 1;
+        if (type == long.class || type == Long.class) return 2;
+        if (type == int.class || type == Integer.class) return 3;
+        if (type == float.class || type == Float.class) return 4;
+        if (type == short.class || type == Short.class) return 5;
+        if (type == byte.class || type == Byte.class) return 6;
+        return 7;
+    }
+
+    private static MethodHandle adapt(Method method) {
+        MethodHandle target;
+        try {
+            target = MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new NativeError("Cannot access " + method + ".");
+        }
+        // Whatever the method itself throws becomes a NativeError here, before
+        // any conversion wraps it, so it can't be mistaken for a conversion failure.
+        MethodHandle thrown = MethodHandles.filterArguments(
+                MethodHandles.throwException(target.type().returnType(), NativeError.class), 0,
+                MethodHandles.insertArguments(converter("thrown", NativeError.class, String.class, Throwable.class),
+                        0, method.getDeclaringClass().getName() + "." + method.getName()));
+        target = MethodHandles.catchException(target, Throwable.class,
+                MethodHandles.dropArguments(thrown, 1, target.type().parameterList()));
+
+        Class<?>[] parameters = method.getParameterTypes();
+        MethodHandle[] converters = new MethodHandle[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            converters[i] = argumentConverter(parameters[i]);
+        }
+        target = MethodHandles.filterArguments(target, 0, converters);
+
+        Class<?> returnType = method.getReturnType();
+        if (returnType == void.class) {
+            MethodHandle nil = MethodHandles.dropArguments(
+                    MethodHandles.constant(Object.class, null), 0, target.type().parameterList());
+            target = MethodHandles.foldArguments(nil, target);
+        } else {
+            target = MethodHandles.filterReturnValue(target, resultConverter(returnType));
+        }
+
+        return target
+                .asSpreader(Object[].class, parameters.length)
+                .asType(MethodType.methodType(Object.class, Object[].class));
+    }
+
+    private static MethodHandle argumentConverter(Class<?> type) {
+        Class<?> unboxed = MethodType.methodType(type).unwrap().returnType();
+        MethodHandle converter;
+        if (unboxed == double.class) converter = converter("toDouble", double.class, Object.class);
+        else if (unboxed == float.class) converter = converter("toFloat", float.class, Object.class);
+        else if (unboxed == long.class) converter = converter("toLong", long.class, Object.class);
+        else if (unboxed == int.class) converter = converter("toInt", int.class, Object.class);
+        else if (unboxed == short.class) converter = converter("toShort", short.class, Object.class);
+        else if (unboxed == byte.class) converter = converter("toByte", byte.class, Object.class);
+        else if (unboxed == boolean.class) converter = converter("toBoolean", boolean.class, Object.class);
+        else if (unboxed == char.class) converter = converter("toChar", char.class, Object.class);
+        else converter = converter("toStringValue", String.class, Object.class);
+        return converter.asType(MethodType.methodType(type, Object.class));
+    }
+
+    private static MethodHandle resultConverter(Class<?> type) {
+        Class<?> unboxed = MethodType.methodType(type).unwrap().returnType();
+        MethodHandle converter;
+        if (type == String.class) {
+            converter = MethodHandles.identity(Object.class);
+        } else if (!type.isPrimitive()) {
+            // Boxes can be null, which is nil.
+            converter = converter("fromBox", Object.class, Object.class);
+        } else if (unboxed == char.class) {
+            converter = converter("fromChar", Object.class, char.class);
+        } else if (unboxed == long.class) {
+            converter = converter("fromLong", Object.class, long.class);
+        } else if (unboxed != boolean.class) {
+            // Every remaining primitive widens to double exactly, with a plain cast.
+            converter = MethodHandles.explicitCastArguments(
+                    converter("fromDouble", Object.class, double.class),
+                    MethodType.methodType(Object.class, unboxed));
+        } else {
+            converter = converter("fromBox", Object.class, Object.class);
+        }
+        return converter.asType(MethodType.methodType(Object.class, type));
+    }
+
+    private static MethodHandle converter(String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            return LOOKUP.findStatic(JavaStaticFunction.class, name, MethodType.methodType(returnType, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Whether each argument is of the Lox type a parameter takes. Values are
+     * only checked further, e.g. for being whole numbers, once converted.
+     */
+    private static boolean fits(Class<?>[] parameters, Object[] args) {
+        for (int i = 0; i < parameters.length; i++) {
+            Class<?> type = MethodType.methodType(parameters[i]).unwrap().returnType();
+            Object arg = args[i];
+            boolean fits;
+            if (type == boolean.class) fits = arg instanceof Boolean;
+            else if (type == char.class) fits = arg instanceof String;
+            else if (type.isPrimitive()) fits = arg instanceof Double;
+            else fits = arg == null || arg instanceof String;
+            if (!fits) return false;
+        }
+        return true;
+    }
+
+    private static NativeError thrown(String method, Throwable exception) {
+        return new NativeError(method + " threw " + exception);
+    }
+
+    private static Object noOverload(String name, Object[] args) {
+        StringBuilder types = new StringBuilder();
+        for (Object arg : args) {
+            if (types.length() > 0) types.append(", ");
+            types.append(typeName(arg));
+        }
+        throw new NativeError("No overload of " + name + " takes (" + types + ").");
+    }
+
+    private static String typeName(Object value) {
+        if (value == null) return "nil";
+        if (value instanceof Double) return "number";
+        if (value instanceof String) return "string";
+        if (value instanceof Boolean) return "boolean";
+        return Interpreter.stringify(value);
+    }
+
+    private static double toDouble(Object value) {
+        if (value instanceof Double number) return number;
+        throw new NativeError("Expected a number but got " + Interpreter.stringify(value) + ".");
+    }
+
+    private static long toLong(Object value) {
+        double number = toDouble(value);
+        if (number != Math.rint(number) || Math.abs(number) > 0x1p53) {
+            throw new NativeError("Expected an integer but got " + Interpreter.stringify(value) + ".");
+        }
+        return (long) number;
+    }
+
+    private static float toFloat(Object value) {
+        return (float) toDouble(value);
+    }
+
+    private static int toInt(Object value) {
+        long number = toLong(value);
+        if (number != (int) number) throw new NativeError(number + " doesn't fit in an int.");
+        return (int) number;
+    }
+
+    private static short toShort(Object value) {
+        long number = toLong(value);
+        if (number != (short) number) throw new NativeError(number + " doesn't fit in a short.");
+        return (short) number;
+    }
+
+    private static byte toByte(Object value) {
+        long number = toLong(value);
+        if (number != (byte) number) throw new NativeError(number + " doesn't fit in a byte.");
+        return (byte) number;
+    }
+
+    private static boolean toBoolean(Object value) {
+        if (value instanceof Boolean bool) return bool;
+        throw new NativeError("Expected a boolean but got " + Interpreter.stringify(value) + ".");
+    }
+
+    private static char toChar(Object value) {
+        if (value instanceof String string && string.length() == 1) return string.charAt(0);
+        throw new NativeError("Expected a one-character string but got " + Interpreter.stringify(value) + ".");
+    }
+
+    private static String toStringValue(Object value) {
+        if (value == null || value instanceof String) return (String) value;
+        throw new NativeError("Expected a string but got " + Interpreter.stringify(value) + ".");
+    }
+
+    private static Object fromDouble(double value) {
+        return value;
+    }
+
+    private static Object fromLong(long value) {
+        // Compared against both bounds, since Math.abs(Long.MIN_VALUE) is negative.
+        if (value > (1L << 53) || value < -(1L << 53)) {
+            throw new NativeError("Result " + value + " is too large to be a Lox number exactly.");
+        }
+        return (double) value;
+    }
+
+    private static Object fromChar(char value) {
+        return String.valueOf(value);
+    }
+
+    private static Object fromBox(Object value) {
+        if (value instanceof Long number) return fromLong(number);
+        if (value instanceof Character character) return fromChar(character);
+        if (value instanceof Number number) return number.doubleValue();
+        return value;
+    }
+}
@@ -0,0 +1,29 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A function body that has been checked for syntax errors but not yet built
+ * into statements. It only remembers where the body starts, and is parsed
+ * and resolved the first time the function needs it.
+ */
+class LazyBody {
+    private final List<Token> tokens;
+    // The first token after the body's opening brace.
+    private final int start;
+    // Names declared in the scopes around the function, once the Resolver has seen it.
+    Set<String> enclosingLocals = Set.of();
+
+    LazyBody(List<Token> tokens, int start) {
+        this.tokens = tokens;
+        this.start = start;
+    }
+
+    List<Stmt> parse(List<Token> parameters) {
+        List<Stmt> statements = new Parser(tokens, false, true).parseCheckedBody(start);
+        new Resolver(enclosingLocals).resolveFunction(parameters, statements);
+        TypeInference.inferFunction(parameters, statements);
+        return statements;
+    }
+}
@@ -0,0 +1,58 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how many times statements on each line of a script run. Every
+ * statement is instrumented, and a line counts as executable if any
+ * statement starts on it. The report is in LCOV's tracefile format, which
+ * coverage viewers and CI services read.
+ */
+class LineCoverage implements Instrumentation.Listener {
+    private final String sourceName;
+    private boolean[] executable = new boolean[64];
+    // Statements can run on coroutine and parallel task threads.
+    private AtomicLongArray hits = new AtomicLongArray(64);
+
+    LineCoverage(String sourceName) {
+        this.sourceName = sourceName;
+    }
+
+    @Override
+    public boolean instruments(Stmt statement) {
+        int line = statement.line;
+        if (line >= executable.length) {
+            int capacity = Math.max(line + 1, executable.length * 2);
+            executable = Arrays.copyOf(executable, capacity);
+            AtomicLongArray counts = new AtomicLongArray(capacity);
+            for (int i = 0; i < hits.length(); i++) counts.set(i, hits.get(i));
+            hits = counts;
+        }
+        executable[line] = true;
+        return true;
+    }
+
+    @Override
+    public void onStatement(Stmt statement, int line) {
+        hits.incrementAndGet(line);
+    }
+
+    String report() {
+        StringBuilder report = new StringBuilder();
+        report.append("SF:").append(sourceName).append('\n');
+        int found = 0;
+        int covered = 0;
+        for (int line = 1; line < executable.length; line++) {
+            if (!executable[line]) continue;
+            long count = hits.get(line);
+            report.append("DA:").append(line).append(',').append(count).append('\n');
+            found++;
+            if (count > 0) covered++;
+        }
+        report.append("LF:").append(found).append('\n');
+        report.append("LH:").append(covered).append('\n');
+        report.append("end_of_record\n");
+        return report.toString();
+    }
+}
@@ -4,33 +4,195 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Lox {
     private static boolean hadError;
     private static boolean hadRuntimeError;
-    private static final Interpreter interpreter = new Interpreter();
-
-    public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
-        } else {
-            runPrompt();
+    private static Interpreter interpreter;
+    private static boolean memoStats;
+    private static boolean parallelParse;
+    private static boolean lazyParse;
+    private static boolean flatAst;
+    // Tools observing the script, such as coverage.
+    private static final Instrumentation instrumentation = new Instrumentation();
+    private static Path coveragePath;
+    private static LineCoverage coverage;
+    // What earlier runs of the script learned, loaded by runFile.
+    private static Path profilePath;
+    private static Profile profile;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String outputPath = null;
+        OutputSink.FlushPolicy flushPolicy = null;
+        int memoCapacity = 0;
+        int maxDepth = Interpreter.DEFAULT_MAX_DEPTH;
+        long maxInstructions = Long.MAX_VALUE;
+        long maxMemory = Long.MAX_VALUE;
+        List<String> scripts = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--output=")) {
+                outputPath = arg.substring("--output=".length());
+            } else if (arg.startsWith("--flush=")) {
+                flushPolicy = flushPolicy(arg.substring("--flush=".length()));
+            } else if (arg.equals("--memoize")) {
+                memoCapacity = 1024;
+            } else if (arg.startsWith("--memoize=")) {
+                memoCapacity = positive(arg.substring("--memoize=".length()));
+            } else if (arg.equals("--memo-stats")) {
+                memoStats = true;
+            } else if (arg.equals("--parallel-parse")) {
+                parallelParse = true;
+            } else if (arg.equals("--no-fusion")) {
+                Fusion.enabled = false;
+            } else if (arg.equals("--lazy-parse")) {
+                lazyParse = true;
+            } else if (arg.equals("--flat-ast")) {
+                flatAst = true;
+            } else if (arg.startsWith("--coverage=")) {
+                coveragePath = Paths.get(arg.substring("--coverage=".length()));
+            } else if (arg.startsWith("--profile=")) {
+                profilePath = Paths.get(arg.substring("--profile=".length()));
+            } else if (arg.startsWith("--module-cache=")) {
+                ModuleCache.shared.capacity = positive(arg.substring("--module-cache=".length()));
+            } else if (arg.startsWith("--max-depth=")) {
+                maxDepth = positive(arg.substring("--max-depth=".length()));
+            } else if (arg.startsWith("--max-instructions=")) {
+                maxInstructions = positiveLong(arg.substring("--max-instructions=".length()));
+            } else if (arg.startsWith("--max-memory=")) {
+                maxMemory = positiveLong(arg.substring("--max-memory=".length()));
+            } else if (arg.startsWith("--")) {
+                usage();
+            } else {
+                scripts.add(arg);
+            }
+        }
+        if (scripts.size() > 1) usage();
+
+        // The prompt is interactive, so by default it shows output as soon as it's printed.
+        if (flushPolicy == null) {
+            flushPolicy = scripts.isEmpty() ? OutputSink.FlushPolicy.perLine() : OutputSink.FlushPolicy.onExit();
+        }
+        OutputSink output = outputPath == null
+                ? OutputSink.stdout(flushPolicy)
+                : OutputSink.file(Paths.get(outputPath), flushPolicy);
+        interpreter = new Interpreter(output);
+        if (memoCapacity > 0) interpreter.memoizer = new Memoizer(memoCapacity);
+        interpreter.maxDepth = maxDepth;
+        interpreter.budget = new ResourceBudget(maxInstructions, maxMemory);
+        ModuleCache.shared.lazyBodies = lazyParse;
+        if (coveragePath != null) {
+            coverage = new LineCoverage(scripts.isEmpty() ? "<stdin>" : Paths.get(scripts.get(0)).toAbsolutePath().toString());
+            instrumentation.attach(coverage);
+        }
+
+        // Scripts run on a thread whose stack fits maxDepth nested calls, so
+        // the depth limit rather than -Xss decides how deep recursion can go.
+        long stackSize = Interpreter.stackSize(maxDepth);
+        Thread thread = new Thread(null, () -> {
+            try {
+                if (scripts.size() == 1) {
+                    runFile(scripts.get(0));
+                } else {
+                    runPrompt();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                finish();
+            }
+        }, "lox-main", stackSize);
+        Throwable[] failure = new Throwable[1];
+        thread.setUncaughtExceptionHandler((t, e) -> failure[0] = e);
+        thread.start();
+        thread.join();
+        // Anything the script thread couldn't handle is rethrown here, as if it had run on main.
+        if (failure[0] instanceof RuntimeException e) throw e;
+        if (failure[0] instanceof Error e) throw e;
+    }
+
+    /**
+     * Writes out everything still pending before the process ends.
+     */
+    private static void finish() {
+        interpreter.output.flush();
+        if (memoStats && interpreter.memoizer != null) System.err.println(interpreter.memoizer.report());
+        if (coverage != null) {
+            try {
+                Files.writeString(coveragePath, coverage.report());
+            } catch (IOException e) {
+                System.err.println("Could not write coverage report to " + coveragePath + ": " + e.getMessage());
+            }
+        }
+        if (profile != null) {
+            try {
+                profile.save(profilePath);
+            } catch (IOException e) {
+                System.err.println("Could not write profile to " + profilePath + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void usage() {
+        System.out.println("Usage: jlox [--output=file] [--flush=exit|line|size:bytes|time:millis]"
+                + " [--memoize[=capacity]] [--memo-stats] [--max-depth=calls] [--parallel-parse] [--lazy-parse] [--flat-ast] [--no-fusion]"
+                + " [--coverage=file] [--profile=file] [--max-instructions=count] [--max-memory=bytes]"
+                + " [--module-cache=tokens] [script]");
+        System.exit(64);
+    }
+
+    private static OutputSink.FlushPolicy flushPolicy(String spec) {
+        try {
+            if (spec.equals("exit")) return OutputSink.FlushPolicy.onExit();
+            if (spec.equals("line")) return OutputSink.FlushPolicy.perLine();
+            if (spec.startsWith("size:")) return OutputSink.FlushPolicy.onSize(Integer.parseInt(spec.substring(5)));
+            if (spec.startsWith("time:")) return OutputSink.FlushPolicy.onTime(Long.parseLong(spec.substring(5)));
+        } catch (NumberFormatException ignored) {
+        }
+        usage();
+        return null;
+    }
+
+    private static int positive(String number) {
+        try {
+            int value = Integer.parseInt(number);
+            if (value > 0) return value;
+        } catch (NumberFormatException ignored) {
         }
+        usage();
+        return 0;
+    }
+
+    private static long positiveLong(String number) {
+        try {
+            long value = Long.parseLong(number);
+            if (value > 0) return value;
+        } catch (NumberFormatException ignored) {
+        }
+        usage();
+        return 0;
     }
 
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
+        Path file = Paths.get(path).toAbsolutePath();
+        interpreter.moduleDirectory = file.getParent();
+        byte[] bytes = Files.readAllBytes(file);
+        if (profilePath != null) profile = Profile.load(profilePath, bytes);
         String source = new String(bytes, Charset.defaultCharset());
         run(source);
-        if (hadError) System.exit(65);
-        if (hadRuntimeError) System.exit(70);
+        if (hadError) exit(65);
+        if (hadRuntimeError) exit(70);
+    }
+
+    private static void exit(int status) {
+        finish();
+        System.exit(status);
     }
 
     private static void runPrompt() throws IOException {
@@ -50,8 +212,23 @@ public class Lox {
     private static void run(String source) {
         Scanner scanner = new Scanner(source);
         List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
+        List<Stmt> statements = parallelParse
+                ? ParallelParser.parse(tokens, lazyParse)
+                : new Parser(tokens, true, lazyParse).parse();
+        new Resolver().resolve(statements);
+        TypeInference.infer(statements);
+        if (!instrumentation.isEmpty()) statements = instrumentation.instrument(statements);
+        if (profile != null) profile.apply(statements);
+        // Only the object tree can represent programs with probes, or with syntax errors, which still run.
+        if (flatAst && !hadError && instrumentation.isEmpty()) {
+            FlatAst ast = FlatAst.encode(statements);
+            // Nothing else refers to the tree or its tokens, so they can be collected while the program runs,
+            // except for the tokens of function bodies --lazy-parse hasn't built yet.
+            statements = null;
+            interpreter.interpret(ast);
+            return;
+        }
+        if (profile != null) profile.observe(statements);
         interpreter.interpret(statements);
     }
 
@@ -60,6 +237,7 @@ public class Lox {
     }
 
     private static void reportError(String message, String where, int line) {
+        interpreter.output.flush();
         System.err.printf("%n" + where + ": [line: " + line + "] Error" + ": " + message + "%n");
         hadError = true;
     }
@@ -73,7 +251,9 @@ public class Lox {
     }
 
     public static void runtimeError(RuntimeError e) {
+        interpreter.output.flush();
         System.err.println(e.getMessage() + " [line:" + e.token.line + "]");
+        for (String frame : e.trace()) System.err.println(frame);
         hadRuntimeError = true;
     }
 }
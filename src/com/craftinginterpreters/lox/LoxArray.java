@@ -0,0 +1,54 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of Lox values, indexed from zero.
+ */
+public class LoxArray {
+    private Object[] elements;
+    private int size;
+
+    LoxArray() {
+        this(8);
+    }
+
+    LoxArray(int capacity) {
+        elements = new Object[Math.max(capacity, 1)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    Object get(int index) {
+        checkIndex(index);
+        return elements[index];
+    }
+
+    void set(int index, Object value) {
+        checkIndex(index);
+        elements[index] = value;
+    }
+
+    void add(Object value) {
+        if (size == elements.length) elements = Arrays.copyOf(elements, size * 2);
+        elements[size++] = value;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new NativeError("Index " + index + " is out of bounds for an array of length " + size + ".");
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(elements[i] == this ? "[...]" : Interpreter.stringify(elements[i]));
+        }
+        return builder.append("]").toString();
+    }
+}
@@ -0,0 +1,77 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A FIFO channel between coroutines. With a capacity of zero, `send` waits
+ * until a receiver has taken the value. Receiving from a closed, drained
+ * channel returns nil.
+ */
+public class LoxChannel {
+    // Stands in for nil, which ArrayDeque can't hold.
+    private static final Object NIL = new Object();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final ArrayDeque<Object> buffer = new ArrayDeque<>();
+    private final int capacity;
+    private long sent;
+    private long received;
+    private boolean closed;
+
+    LoxChannel(int capacity) {
+        this.capacity = capacity;
+    }
+
+    void send(Object value) {
+        Scheduler.await(() -> {
+            lock.lock();
+            try {
+                while (!closed && buffer.size() >= Math.max(capacity, 1)) changed.await();
+                if (closed) throw new NativeError("Cannot send on a closed channel.");
+                buffer.addLast(value == null ? NIL : value);
+                long ticket = ++sent;
+                changed.signalAll();
+                if (capacity == 0) {
+                    while (received < ticket && !closed) changed.await();
+                }
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    Object receive() {
+        return Scheduler.await(() -> {
+            lock.lock();
+            try {
+                while (buffer.isEmpty() && !closed) changed.await();
+                Object value = buffer.pollFirst();
+                if (value == null) return null;
+                received++;
+                changed.signalAll();
+                return value == NIL ? null : value;
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
@@ -0,0 +1,49 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.Map;
+
+public class LoxClass implements LoxCallable {
+    final String name;
+    final LoxClass superclass;
+    final Shape rootShape;
+    private final Map<String, LoxFunction> methods;
+    // The most fields any instance has had, used to size new instances up front.
+    private volatile int expectedSlots;
+
+    LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
+        this.name = name;
+        this.superclass = superclass;
+        this.methods = methods;
+        this.rootShape = Shape.root(this);
+    }
+
+    LoxFunction findMethod(String name) {
+        LoxFunction method = methods.get(name);
+        if (method != null) return method;
+        return superclass != null ? superclass.findMethod(name) : null;
+    }
+
+    void noteSlotCount(int slotCount) {
+        if (slotCount > expectedSlots) expectedSlots = slotCount;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> args) {
+        LoxInstance instance = new LoxInstance(this, expectedSlots);
+        LoxFunction initializer = findMethod("init");
+        if (initializer != null) initializer.bind(instance).call(interpreter, args);
+        return instance;
+    }
+
+    @Override
+    public int arity() {
+        LoxFunction initializer = findMethod("init");
+        return initializer == null ? 0 : initializer.arity();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
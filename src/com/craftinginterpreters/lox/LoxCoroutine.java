@@ -0,0 +1,50 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A Lox function running on its own virtual thread with its own interpreter
+ * state. A runtime error inside a coroutine is reported as soon as it happens,
+ * like one in the main script, and joining the coroutine raises it again.
+ */
+public class LoxCoroutine {
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private Object result;
+    private RuntimeError error;
+
+    /**
+     * Starts calling {@code function} as if from {@code line}, where the
+     * coroutine was started, and then runs {@code onExit} if there is one.
+     */
+    LoxCoroutine(Interpreter interpreter, LoxCallable function, List<Object> args, int line, Runnable onExit) {
+        Thread.ofVirtual().name("lox-coroutine").start(() -> {
+            Scheduler.enter();
+            try {
+                result = interpreter.call(function, args, line);
+            } catch (RuntimeError e) {
+                error = e;
+                Lox.runtimeError(e);
+            } finally {
+                if (onExit != null) onExit.run();
+                interpreter.releaseBudget();
+                finished.countDown();
+                Scheduler.exit();
+            }
+        });
+    }
+
+    Object join() {
+        Scheduler.await(() -> {
+            finished.await();
+            return null;
+        });
+        if (error != null) throw new NativeError("Joined coroutine failed: " + error.getMessage());
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "<coroutine>";
+    }
+}
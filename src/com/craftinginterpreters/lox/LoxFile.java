@@ -0,0 +1,105 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A UTF-8 text file read through a sliding memory-mapped window, so scripts can
+ * stream through files much larger than the heap. Bytes for each line or chunk
+ * are copied once into a reusable scratch array and decoded from there into
+ * the returned string; nothing else is allocated per read.
+ */
+public class LoxFile {
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final String path;
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+    private byte[] scratch = new byte[256];
+
+    LoxFile(String path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(Path.of(path), StandardOpenOption.READ);
+        this.size = channel.size();
+        map(0, WINDOW_SIZE);
+    }
+
+    /**
+     * Returns the next line without its terminator (`\n` or `\r\n`), or nil once
+     * the whole file has been read.
+     */
+    String readLine() throws IOException {
+        checkOpen();
+        if (position >= size) return null;
+        long end = position;
+        while (true) {
+            long windowEnd = windowStart + window.limit();
+            while (end < windowEnd && window.get((int) (end - windowStart)) != '\n') end++;
+            if (end < windowEnd || windowEnd == size) break;
+            // The line runs past the window: slide it to start at this line,
+            // growing it if the line alone doesn't fit.
+            long scanned = end - position;
+            map(position, scanned + 1 > WINDOW_SIZE / 2 ? Math.min(Integer.MAX_VALUE, 2 * (scanned + 1)) : WINDOW_SIZE);
+            end = position + scanned;
+        }
+
+        long next = end < size ? end + 1 : end;
+        if (end > position && window.get((int) (end - 1 - windowStart)) == '\r') end--;
+        String line = decode(position, (int) (end - position));
+        position = next;
+        return line;
+    }
+
+    /**
+     * Returns up to {@code maxBytes} bytes of text, cut short so that a UTF-8
+     * sequence isn't split between chunks, or nil at the end of the file.
+     */
+    String readChunk(int maxBytes) throws IOException {
+        checkOpen();
+        if (position >= size) return null;
+        int length = (int) Math.min(maxBytes, size - position);
+        if (position + length < size) {
+            // Map one byte past the chunk as well, to see if it starts a new character.
+            if (position + length >= windowStart + window.limit()) map(position, Math.max(length + 1L, WINDOW_SIZE));
+            int end = length;
+            while (end > 0 && (window.get((int) (position + end - windowStart)) & 0xC0) == 0x80) end--;
+            if (end > 0) length = end;
+        } else if (position + length > windowStart + window.limit()) {
+            map(position, Math.max(length, WINDOW_SIZE));
+        }
+        String chunk = decode(position, length);
+        position += length;
+        return chunk;
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    private void checkOpen() {
+        if (!channel.isOpen()) throw new NativeError("File '" + path + "' is closed.");
+    }
+
+    private void map(long start, long length) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(length, size - start));
+    }
+
+    private String decode(long start, int length) {
+        if (scratch.length < length) scratch = new byte[Math.max(length, scratch.length * 2)];
+        window.get((int) (start - windowStart), scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return "<file " + path + ">";
+    }
+}
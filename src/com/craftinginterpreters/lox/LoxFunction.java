@@ -1,37 +1,194 @@
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class LoxFunction implements LoxCallable {
-    private final Stmt.Function declaration;
+    // For functions run from a FlatAst, decoded only if the memoizer asks about purity.
+    private Stmt.Function declaration;
+    // The FUNCTION node this was declared by, if it was run from a FlatAst.
+    private final FlatAst flat;
+    private final int flatNode;
     private final Environment closure;
+    private final boolean isInitializer;
+    // What the names this function calls, directly or through its callees,
+    // were bound to when it was decided whether to memoize it; null until then.
+    private volatile Binding[] memoBindings;
+    private Memoizer.Cache memo;
+
+    private record Binding(Environment scope, String name, Object value) {
+        boolean holds() {
+            return scope.find(name) == value;
+        }
+    }
 
     LoxFunction(Stmt.Function declaration, Environment closure) {
+        this(declaration, closure, false);
+    }
+
+    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
         this.declaration = declaration;
+        this.flat = null;
+        this.flatNode = -1;
         this.closure = closure;
+        this.isInitializer = isInitializer;
+    }
+
+    LoxFunction(FlatAst flat, int flatNode, Environment closure, boolean isInitializer) {
+        this.flat = flat;
+        this.flatNode = flatNode;
+        this.closure = closure;
+        this.isInitializer = isInitializer;
+    }
+
+    /**
+     * Returns this method with `this` bound to the instance. Bound methods
+     * are created on every access, so they are never memoized.
+     */
+    LoxFunction bind(LoxInstance instance) {
+        Environment environment = new Environment(closure);
+        environment.define("this", instance);
+        LoxFunction bound = flat != null
+                ? new LoxFunction(flat, flatNode, environment, isInitializer)
+                : new LoxFunction(declaration, environment, isInitializer);
+        bound.memoBindings = new Binding[0];
+        return bound;
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> args) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < args.size(); i++) {
-            environment.define(declaration.parameters.get(i).lexeme, args.get(i));
+        Memoizer memoizer = interpreter.memoizer;
+        if (memoizer != null && Memoizer.accepts(args)) {
+            Memoizer.Cache cache = memoCache(memoizer);
+            if (cache != null) {
+                Object cached = cache.lookup(args);
+                if (cached != null) return Memoizer.unwrap(cached);
+                Object result = invoke(interpreter, args);
+                cache.store(args, result);
+                return result;
+            }
+        }
+        return invoke(interpreter, args);
+    }
+
+    /**
+     * Returns this function's cache, or null if it isn't memoized. Whether it
+     * is gets decided again, starting from an empty cache, once any of the
+     * names it was decided from is bound to something else.
+     */
+    private Memoizer.Cache memoCache(Memoizer memoizer) {
+        if (!bindingsHold()) {
+            synchronized (this) {
+                if (!bindingsHold()) {
+                    List<Binding> bindings = new ArrayList<>();
+                    boolean pure = isPure(new HashSet<>(), bindings);
+                    if (memo != null) memo.clear();
+                    if (!pure) {
+                        memo = null;
+                    } else if (memo == null) {
+                        memo = memoizer.newCache(name());
+                    }
+                    memoBindings = bindings.toArray(new Binding[0]);
+                }
+            }
         }
+        return memo;
+    }
+
+    private boolean bindingsHold() {
+        Binding[] bindings = memoBindings;
+        if (bindings == null) return false;
+        for (Binding binding : bindings) {
+            if (!binding.holds()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * A function is pure if its body is, and so is everything it calls.
+     * Functions already being checked further up are assumed pure, which is
+     * what lets recursive functions qualify. The callees looked at are added
+     * to {@code bindings}.
+     */
+    private boolean isPure(Set<LoxFunction> checking, List<Binding> bindings) {
+        if (!checking.add(this)) return true;
+        if (declaration == null) declaration = flat.decodeFunction(flatNode);
+        PurityAnalyzer.Result result = PurityAnalyzer.analyze(declaration);
+        if (!result.pure) return false;
+        for (String name : result.calledNames) {
+            Object callee = closure.find(name);
+            bindings.add(new Binding(closure, name, callee));
+            if (callee instanceof NativeFunction function && function.pure) continue;
+            if (callee instanceof LoxFunction function && function.isPure(checking, bindings)) continue;
+            return false;
+        }
+        return true;
+    }
+
+    private boolean hasLocalFrames() {
+        return flat != null ? flat.operators[flatNode] != 0 : declaration.localFrames;
+    }
+
+    /**
+     * Returns the environment for a call, which {@link #releaseFrame} must be
+     * given once the call is over.
+     */
+    Environment newFrame(Interpreter interpreter) {
+        return hasLocalFrames() ? interpreter.acquireFrame(closure) : new Environment(closure);
+    }
+
+    void releaseFrame(Interpreter interpreter, Environment frame) {
+        if (hasLocalFrames()) interpreter.releaseFrame(frame);
+    }
+
+    /**
+     * Returns a plan for call sites passing {@code argumentCount} arguments
+     * to run this function's body in place, or null if they can't.
+     */
+    InlineCache.Plan inlinePlan(int argumentCount) {
+        if (isInitializer) return null;
+        if (declaration == null) declaration = flat.decodeFunction(flatNode);
+        return InlineCache.plan(this, declaration, argumentCount);
+    }
+
+    private Object invoke(Interpreter interpreter, List<Object> args) {
+        Environment environment = newFrame(interpreter);
         try {
-            interpreter.executeBlock(declaration.body, environment);
+            if (flat != null) {
+                int parameters = flat.b[flatNode];
+                for (int i = 0; i < args.size(); i++) {
+                    environment.define(flat.name(flat.lists[parameters + 1 + i]), args.get(i));
+                }
+                interpreter.flat().executeBlock(flat, flat.c[flatNode], environment);
+            } else {
+                for (int i = 0; i < args.size(); i++) {
+                    environment.define(declaration.parameters.get(i).lexeme, args.get(i));
+                }
+                interpreter.executeBlock(declaration.body(), environment);
+            }
         } catch (Return returnValue) {
+            if (isInitializer) return closure.find("this");
             return returnValue.value;
+        } finally {
+            releaseFrame(interpreter, environment);
         }
+        if (isInitializer) return closure.find("this");
         return null;
     }
 
     @Override
     public int arity() {
-        return declaration.parameters.size();
+        return flat != null ? flat.lists[flat.b[flatNode]] : declaration.parameters.size();
+    }
+
+    String name() {
+        return flat != null ? flat.name(flat.a[flatNode]) : declaration.fnName.lexeme;
     }
 
     @Override
     public String toString() {
-        return "<fn " + declaration.fnName.lexeme + ">";
+        return "<fn " + name() + ">";
     }
 }
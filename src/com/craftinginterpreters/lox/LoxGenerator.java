@@ -0,0 +1,78 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs a producer function in a coroutine that hands values over one at a
+ * time through an unbuffered channel, so the producer never runs more than one
+ * value ahead of the consumer. The producer is called with an `emit` function
+ * and starts on the first request for a value.
+ */
+public class LoxGenerator {
+    private static final Object NOTHING = new Object();
+
+    private final Interpreter interpreter;
+    private final LoxCallable producer;
+    // Where the generator was created, which its producer is called from.
+    private final int line;
+    private final LoxChannel channel = new LoxChannel(0);
+    private boolean started;
+    private boolean done;
+    private Object lookahead = NOTHING;
+
+    LoxGenerator(Interpreter interpreter, LoxCallable producer, int line) {
+        this.interpreter = interpreter;
+        this.producer = producer;
+        this.line = line;
+    }
+
+    boolean hasNext() {
+        if (lookahead == NOTHING && !done) lookahead = receive();
+        return lookahead != NOTHING;
+    }
+
+    Object next() {
+        if (!hasNext()) return null;
+        Object value = lookahead;
+        lookahead = NOTHING;
+        return value;
+    }
+
+    private Object receive() {
+        if (!started) {
+            started = true;
+            new LoxCoroutine(interpreter, producer, Collections.singletonList(new Emit()), line, channel::close);
+        }
+        // Values are boxed so that an emitted nil isn't mistaken for the end.
+        Object[] box = (Object[]) channel.receive();
+        if (box == null) {
+            done = true;
+            return NOTHING;
+        }
+        return box[0];
+    }
+
+    private class Emit implements LoxCallable {
+        @Override
+        public Object call(Interpreter interpreter, List<Object> args) {
+            channel.send(new Object[]{args.get(0)});
+            return null;
+        }
+
+        @Override
+        public int arity() {
+            return 1;
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<generator>";
+    }
+}
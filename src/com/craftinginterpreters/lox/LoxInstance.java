@@ -0,0 +1,33 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/**
+ * An object whose fields live in a plain array, laid out by its {@link Shape}.
+ */
+public class LoxInstance {
+    final LoxClass klass;
+    Shape shape;
+    Object[] fields;
+
+    LoxInstance(LoxClass klass, int capacity) {
+        this.klass = klass;
+        this.shape = klass.rootShape;
+        this.fields = new Object[capacity];
+    }
+
+    /**
+     * Adds a field by moving to {@code next}, a transition from the current shape.
+     */
+    void addField(Shape next, Object value) {
+        int slot = next.slotCount - 1;
+        if (slot >= fields.length) fields = Arrays.copyOf(fields, Math.max(4, fields.length * 2));
+        fields[slot] = value;
+        shape = next;
+    }
+
+    @Override
+    public String toString() {
+        return klass.name + " instance";
+    }
+}
@@ -0,0 +1,175 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * A Lox map value backed by an open-addressing hash table with linear probing.
+ * Two keys are the same key exactly when Lox's `==` considers them equal, so
+ * `1` and `1.0` are the same key while `1` and `"1"` aren't. Numbers and strings, by far
+ * the most common keys, are hashed and compared without going through the
+ * generic `equals` path.
+ */
+public class LoxMap {
+    private static final int MIN_CAPACITY = 8;
+    // Stands in for a `nil` key, since a null slot marks an empty bucket.
+    private static final Object NIL_KEY = new Object();
+    // Marks a removed entry so that probe sequences running through it stay intact.
+    private static final Object TOMBSTONE = new Object();
+
+    private Object[] keys = new Object[MIN_CAPACITY];
+    private Object[] values = new Object[MIN_CAPACITY];
+    private int size;
+    // Live entries plus tombstones; this is what governs probe lengths.
+    private int occupied;
+    // Bumped on every insertion or removal so iteration can detect them.
+    private int modifications;
+
+    int size() {
+        return size;
+    }
+
+    Object get(Object key) {
+        int slot = find(key == null ? NIL_KEY : key);
+        return slot < 0 ? null : values[slot];
+    }
+
+    boolean containsKey(Object key) {
+        return find(key == null ? NIL_KEY : key) >= 0;
+    }
+
+    void put(Object key, Object value) {
+        if (key == null) key = NIL_KEY;
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        int firstTombstone = -1;
+        while (true) {
+            Object existing = keys[index];
+            if (existing == null) break;
+            if (existing == TOMBSTONE) {
+                if (firstTombstone < 0) firstTombstone = index;
+            } else if (sameKey(existing, key)) {
+                values[index] = value;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+
+        if (firstTombstone >= 0) {
+            index = firstTombstone;
+        } else {
+            occupied++;
+        }
+        keys[index] = key;
+        values[index] = value;
+        size++;
+        modifications++;
+        if (occupied * 4 > keys.length * 3) resize();
+    }
+
+    boolean remove(Object key) {
+        int slot = find(key == null ? NIL_KEY : key);
+        if (slot < 0) return false;
+        keys[slot] = TOMBSTONE;
+        values[slot] = null;
+        size--;
+        modifications++;
+        return true;
+    }
+
+    interface EntryConsumer {
+        void accept(Object key, Object value);
+    }
+
+    /**
+     * Visits every entry in table order. Adding or removing keys from inside
+     * the consumer is reported as an error; updating values of existing keys is fine.
+     */
+    void forEach(EntryConsumer consumer) {
+        int expected = modifications;
+        for (int i = 0; i < keys.length; i++) {
+            Object key = keys[i];
+            if (key == null || key == TOMBSTONE) continue;
+            consumer.accept(key == NIL_KEY ? null : key, values[i]);
+            if (modifications != expected) {
+                throw new NativeError("Map was modified while iterating over it.");
+            }
+        }
+    }
+
+    private int find(Object key) {
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (true) {
+            Object existing = keys[index];
+            if (existing == null) return -1;
+            if (existing != TOMBSTONE && sameKey(existing, key)) return index;
+            index = (index + 1) & mask;
+        }
+    }
+
+    /**
+     * Grows the table when it's mostly live entries, otherwise rebuilds it at
+     * the same size to flush out tombstones left behind by removals.
+     */
+    private void resize() {
+        int capacity = keys.length;
+        if (size * 2 >= capacity) capacity *= 2;
+
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        occupied = size;
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            Object key = oldKeys[i];
+            if (key == null || key == TOMBSTONE) continue;
+            int index = hash(key) & mask;
+            while (keys[index] != null) index = (index + 1) & mask;
+            keys[index] = key;
+            values[index] = oldValues[i];
+        }
+    }
+
+    /**
+     * Doubles that hold small integers only differ in their high bits, so the
+     * raw hash codes are run through a finalizer to spread them over the table.
+     */
+    private static int hash(Object key) {
+        int h;
+        if (key instanceof Double number) {
+            long bits = Double.doubleToLongBits(number);
+            h = (int) (bits ^ (bits >>> 32));
+        } else {
+            h = key.hashCode();
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static boolean sameKey(Object stored, Object key) {
+        if (stored == key) return true;
+        if (stored instanceof Double a) {
+            return key instanceof Double b
+                    && Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+        }
+        if (stored instanceof String a) {
+            return key instanceof String b && a.equals(b);
+        }
+        return stored.equals(key);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        forEach((key, value) -> {
+            if (builder.length() > 1) builder.append(", ");
+            builder.append(Interpreter.stringify(key)).append(": ");
+            builder.append(value == this ? "{...}" : Interpreter.stringify(value));
+        });
+        return builder.append("}").toString();
+    }
+}
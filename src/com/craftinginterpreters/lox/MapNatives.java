@@ -0,0 +1,63 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Native functions exposing {@link LoxMap} to scripts:
+ * <pre>
+ *     var counts = map();
+ *     mapSet(counts, "a", 1);
+ *     print mapGet(counts, "a");
+ *     mapForEach(counts, printEntry);  // printEntry(key, value)
+ * </pre>
+ */
+class MapNatives extends NativeModule {
+    private static final int MAP = 0;
+    private static final int MAP_GET = 1;
+    private static final int MAP_SET = 2;
+    private static final int MAP_HAS = 3;
+    private static final int MAP_REMOVE = 4;
+    private static final int MAP_SIZE = 5;
+    private static final int MAP_FOR_EACH = 6;
+
+    @Override
+    void install(Environment globals) {
+        define(globals, "map", 0, MAP);
+        define(globals, "mapGet", 2, MAP_GET);
+        define(globals, "mapSet", 3, MAP_SET);
+        define(globals, "mapHas", 2, MAP_HAS);
+        define(globals, "mapRemove", 2, MAP_REMOVE);
+        define(globals, "mapSize", 1, MAP_SIZE);
+        define(globals, "mapForEach", 2, MAP_FOR_EACH);
+    }
+
+    @Override
+    Object call(int id, Interpreter interpreter, List<Object> args) {
+        return switch (id) {
+            case MAP -> new LoxMap();
+            case MAP_GET -> checkMap(args.get(0)).get(args.get(1));
+            case MAP_SET -> {
+                checkMap(args.get(0)).put(args.get(1), args.get(2));
+                yield args.get(2);
+            }
+            case MAP_HAS -> checkMap(args.get(0)).containsKey(args.get(1));
+            case MAP_REMOVE -> checkMap(args.get(0)).remove(args.get(1));
+            case MAP_SIZE -> (double) checkMap(args.get(0)).size();
+            case MAP_FOR_EACH -> {
+                LoxMap map = checkMap(args.get(0));
+                if (!(args.get(1) instanceof LoxCallable function) || function.arity() != 2) {
+                    throw new NativeError("mapForEach expects a function taking a key and a value.");
+                }
+                map.forEach((key, value) -> function.call(interpreter, Arrays.asList(key, value)));
+                yield null;
+            }
+            default -> throw new IllegalArgumentException("Unknown native " + id);
+        };
+    }
+
+    private static LoxMap checkMap(Object value) {
+        if (value instanceof LoxMap map) return map;
+        throw new NativeError("Expected a map.");
+    }
+}
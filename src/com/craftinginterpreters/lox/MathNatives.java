@@ -0,0 +1,63 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+class MathNatives extends NativeModule {
+    private static final int ABS = 0;
+    private static final int FLOOR = 1;
+    private static final int CEIL = 2;
+    private static final int ROUND = 3;
+    private static final int SQRT = 4;
+    private static final int POW = 5;
+    private static final int EXP = 6;
+    private static final int LOG = 7;
+    private static final int SIN = 8;
+    private static final int COS = 9;
+    private static final int MIN = 10;
+    private static final int MAX = 11;
+
+    @Override
+    void install(Environment globals) {
+        definePure(globals, "abs", 1, ABS);
+        definePure(globals, "floor", 1, FLOOR);
+        definePure(globals, "ceil", 1, CEIL);
+        definePure(globals, "round", 1, ROUND);
+        definePure(globals, "sqrt", 1, SQRT);
+        definePure(globals, "pow", 2, POW);
+        definePure(globals, "exp", 1, EXP);
+        definePure(globals, "log", 1, LOG);
+        definePure(globals, "sin", 1, SIN);
+        definePure(globals, "cos", 1, COS);
+        definePure(globals, "min", 2, MIN);
+        definePure(globals, "max", 2, MAX);
+    }
+
+    @Override
+    Object call(int id, Interpreter interpreter, List<Object> args) {
+        return switch (id) {
+            case ABS -> Math.abs(number(args, 0, "abs"));
+            case FLOOR -> Math.floor(number(args, 0, "floor"));
+            case CEIL -> Math.ceil(number(args, 0, "ceil"));
+            case ROUND -> round(number(args, 0, "round"));
+            case SQRT -> Math.sqrt(number(args, 0, "sqrt"));
+            case POW -> Math.pow(number(args, 0, "pow"), number(args, 1, "pow"));
+            case EXP -> Math.exp(number(args, 0, "exp"));
+            case LOG -> Math.log(number(args, 0, "log"));
+            case SIN -> Math.sin(number(args, 0, "sin"));
+            case COS -> Math.cos(number(args, 0, "cos"));
+            case MIN -> Math.min(number(args, 0, "min"), number(args, 1, "min"));
+            case MAX -> Math.max(number(args, 0, "max"), number(args, 1, "max"));
+            default -> throw new IllegalArgumentException("Unknown native " + id);
+        };
+    }
+
+    /**
+     * Rounds half up like Math.round, but in doubles rather than longs, so
+     * large numbers don't saturate. NaN, infinities and numbers of 2^52 or
+     * more, which have no fraction, are returned as they are.
+     */
+    private static double round(double number) {
+        if (Double.isNaN(number) || Double.isInfinite(number) || Math.abs(number) >= 0x1p52) return number;
+        return Math.floor(number + 0.5);
+    }
+}
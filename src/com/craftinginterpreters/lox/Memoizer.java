@@ -0,0 +1,102 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opt-in memoization of pure functions. Each function proven pure gets its
+ * own LRU cache holding up to {@link #capacity} results, keyed on argument
+ * lists made only of numbers, strings, booleans and nil. Purity is decided on
+ * a function's first call, from its body and whatever the names it calls are
+ * bound to at that point. Rebinding any of those names, such as redefining a
+ * global helper, empties the cache and has purity decided again.
+ */
+class Memoizer {
+    // Stored in place of a nil result, to tell it apart from a cache miss.
+    private static final Object NIL = new Object();
+
+    final int capacity;
+    private final List<Cache> caches = new ArrayList<>();
+
+    Memoizer(int capacity) {
+        this.capacity = capacity;
+    }
+
+    static class Cache {
+        private final String name;
+        private final Map<List<Object>, Object> results;
+        private long hits;
+        private long misses;
+        private long evictions;
+
+        Cache(String name, int capacity) {
+            this.name = name;
+            this.results = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+                    if (size() <= capacity) return false;
+                    evictions++;
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * Returns the cached result, or null on a miss.
+         */
+        synchronized Object lookup(List<Object> args) {
+            Object result = results.get(args);
+            if (result == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            return result;
+        }
+
+        synchronized void clear() {
+            results.clear();
+        }
+
+        synchronized void store(List<Object> args, Object result) {
+            results.put(args, result == null ? NIL : result);
+        }
+    }
+
+    /**
+     * Only immutable values make sound cache keys.
+     */
+    static boolean accepts(List<Object> args) {
+        for (Object arg : args) {
+            if (arg != null && !(arg instanceof Double) && !(arg instanceof String) && !(arg instanceof Boolean)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static Object unwrap(Object cached) {
+        return cached == NIL ? null : cached;
+    }
+
+    synchronized Cache newCache(String name) {
+        Cache cache = new Cache(name, capacity);
+        caches.add(cache);
+        return cache;
+    }
+
+    synchronized String report() {
+        StringBuilder report = new StringBuilder("Memoized functions (capacity " + capacity + "):");
+        if (caches.isEmpty()) report.append(System.lineSeparator()).append("  none");
+        for (Cache cache : caches) {
+            synchronized (cache) {
+                report.append(System.lineSeparator()).append(String.format(
+                        "  %-20s size %d, hits %d, misses %d, evictions %d",
+                        cache.name, cache.results.size(), cache.hits, cache.misses, cache.evictions));
+            }
+        }
+        return report.toString();
+    }
+}
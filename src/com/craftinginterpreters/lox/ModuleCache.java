@@ -0,0 +1,135 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Parsed and resolved modules, shared by every interpreter in the process so
+ * each file is only scanned and parsed again when it changes. An entry is
+ * reused while the file's modification time and size are unchanged, or when
+ * they changed but its contents hash the same. The least recently used
+ * modules are evicted once the cached modules hold more than
+ * {@link #capacity} tokens.
+ */
+class ModuleCache {
+    static final long DEFAULT_CAPACITY = 4_000_000;
+
+    static final ModuleCache shared = new ModuleCache();
+
+    static class LoadError extends Exception {
+        LoadError(String message) {
+            super(message);
+        }
+    }
+
+    private static class Entry {
+        final List<Stmt> statements;
+        final int tokenCount;
+        final long checksum;
+        long modifiedMillis;
+        long size;
+
+        Entry(List<Stmt> statements, int tokenCount, long checksum, long modifiedMillis, long size) {
+            this.statements = statements;
+            this.tokenCount = tokenCount;
+            this.checksum = checksum;
+            this.modifiedMillis = modifiedMillis;
+            this.size = size;
+        }
+    }
+
+    // Access ordered, so iteration starts at the least recently used module.
+    private final Map<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedTokens;
+    volatile long capacity = DEFAULT_CAPACITY;
+    volatile boolean lazyBodies;
+
+    /**
+     * Returns the statements of the module at {@code path}, an absolute, normalized path.
+     */
+    List<Stmt> load(Path path) throws LoadError {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            throw new LoadError("Could not read module '" + path + "'.");
+        }
+        long modifiedMillis = attributes.lastModifiedTime().toMillis();
+        long size = attributes.size();
+
+        Entry cached;
+        synchronized (this) {
+            cached = entries.get(path);
+        }
+        if (cached != null && cached.modifiedMillis == modifiedMillis && cached.size == size) {
+            return cached.statements;
+        }
+
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (IOException e) {
+            throw new LoadError("Could not read module '" + path + "'.");
+        }
+        long checksum = checksum(bytes);
+        if (cached != null && cached.checksum == checksum) {
+            // Touched but not changed.
+            synchronized (this) {
+                cached.modifiedMillis = modifiedMillis;
+                cached.size = size;
+            }
+            return cached.statements;
+        }
+
+        // Syntax errors are reported with the path, as part of the import's runtime error,
+        // rather than as errors in the importing script.
+        List<String> errors = new ArrayList<>();
+        List<Token> tokens = new Scanner(new String(bytes, Charset.defaultCharset()), errors).scanTokens();
+        Parser parser = new Parser(tokens, false, lazyBodies);
+        List<Stmt> statements;
+        try {
+            statements = parser.parse();
+        } catch (Parser.ParseError e) {
+            statements = null;
+        }
+        errors.addAll(parser.errors());
+        if (statements == null || !errors.isEmpty()) {
+            throw new LoadError("Module '" + path + "' has syntax errors: " + String.join("; ", errors));
+        }
+        new Resolver().resolve(statements);
+        TypeInference.infer(statements);
+
+        store(path, new Entry(statements, tokens.size(), checksum, modifiedMillis, size));
+        return statements;
+    }
+
+    private synchronized void store(Path path, Entry entry) {
+        Entry previous = entries.put(path, entry);
+        if (previous != null) cachedTokens -= previous.tokenCount;
+        cachedTokens += entry.tokenCount;
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (cachedTokens > capacity && eldest.hasNext()) {
+            Entry evicted = eldest.next();
+            // Keep the module just loaded even when it alone is over capacity.
+            if (evicted == entry) continue;
+            cachedTokens -= evicted.tokenCount;
+            eldest.remove();
+        }
+    }
+
+    private static long checksum(byte[] bytes) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+}
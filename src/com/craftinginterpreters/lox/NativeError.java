@@ -0,0 +1,11 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Thrown by native functions, which have no token to blame. The interpreter
+ * turns it into a {@link RuntimeError} at the call site that invoked the native.
+ */
+public class NativeError extends RuntimeException {
+    NativeError(String message) {
+        super(message, null, false, false);
+    }
+}
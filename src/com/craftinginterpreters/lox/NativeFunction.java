@@ -0,0 +1,35 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+public class NativeFunction implements LoxCallable {
+    final String name;
+    // Whether the result depends only on the arguments, with no side effects.
+    final boolean pure;
+    private final int arity;
+    private final NativeModule module;
+    private final int id;
+
+    NativeFunction(String name, int arity, NativeModule module, int id, boolean pure) {
+        this.name = name;
+        this.pure = pure;
+        this.arity = arity;
+        this.module = module;
+        this.id = id;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> args) {
+        return module.call(id, interpreter, args);
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
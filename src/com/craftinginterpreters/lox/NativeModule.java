@@ -0,0 +1,45 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/**
+ * A group of natives implemented in Java. A module defines each of its
+ * functions under a small integer id and dispatches calls with a single
+ * switch, so installing a module only allocates one {@link NativeFunction}
+ * per name instead of linking a lambda or loading a class for each of them.
+ */
+abstract class NativeModule {
+    abstract void install(Environment globals);
+
+    abstract Object call(int id, Interpreter interpreter, List<Object> args);
+
+    void define(Environment globals, String name, int arity, int id) {
+        globals.define(name, new NativeFunction(name, arity, this, id, false));
+    }
+
+    /**
+     * Defines a native whose result depends only on its arguments, which
+     * memoized functions are allowed to call.
+     */
+    void definePure(Environment globals, String name, int arity, int id) {
+        globals.define(name, new NativeFunction(name, arity, this, id, true));
+    }
+
+    static double number(List<Object> args, int index, String function) {
+        if (args.get(index) instanceof Double number) return number;
+        throw new NativeError(function + " expects a number as argument " + (index + 1) + ".");
+    }
+
+    static String string(List<Object> args, int index, String function) {
+        if (args.get(index) instanceof String string) return string;
+        throw new NativeError(function + " expects a string as argument " + (index + 1) + ".");
+    }
+
+    static int integer(List<Object> args, int index, String function) {
+        double number = number(args, index, function);
+        if (number != Math.rint(number) || Math.abs(number) > Integer.MAX_VALUE) {
+            throw new NativeError(function + " expects an integer as argument " + (index + 1) + ".");
+        }
+        return (int) number;
+    }
+}
@@ -0,0 +1,24 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Registry of the native modules every interpreter starts with.
+ */
+class Natives {
+    private static final NativeModule[] MODULES = {
+            new CoreNatives(),
+            new MathNatives(),
+            new StringNatives(),
+            new MapNatives(),
+            new FileNatives(),
+            new ArrayNatives(),
+            new ParallelNatives(),
+            new CoroutineNatives(),
+            new JavaNatives(),
+    };
+
+    static void install(Environment globals) {
+        for (NativeModule module : MODULES) {
+            module.install(globals);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Where `print` writes to. Lines are encoded straight into one large byte
+ * buffer and handed to the target channel in batches, instead of going through
+ * {@code System.out}, which locks and may flush on every line. When the batch
+ * is written out is up to the {@link FlushPolicy}. The buffer is always written
+ * out when it fills up and when {@link #flush()} is called.
+ */
+public class OutputSink {
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * When to write buffered output without waiting for the buffer to fill:
+     * once more than {@code maxBufferedBytes} are pending, after every line, or
+     * on a timer every {@code intervalMillis}. A zero or negative value turns
+     * the corresponding trigger off.
+     */
+    record FlushPolicy(int maxBufferedBytes, boolean everyLine, long intervalMillis) {
+        static FlushPolicy onExit() {
+            return new FlushPolicy(0, false, 0);
+        }
+
+        static FlushPolicy onSize(int bytes) {
+            return new FlushPolicy(bytes, false, 0);
+        }
+
+        static FlushPolicy onTime(long millis) {
+            return new FlushPolicy(0, false, millis);
+        }
+
+        static FlushPolicy perLine() {
+            return new FlushPolicy(0, true, 0);
+        }
+    }
+
+    private static ScheduledExecutorService flusher;
+
+    private final WritableByteChannel target;
+    private final ByteArrayOutputStream memory;
+    private final FlushPolicy policy;
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder;
+    private final CharBuffer lineSeparator = CharBuffer.wrap(System.lineSeparator());
+    private final ReentrantLock lock = new ReentrantLock();
+    // Set once writing to the target has failed, e.g. because a pipe's reader
+    // went away. Like PrintStream, later output is then dropped rather than
+    // failing the script.
+    private boolean failed;
+
+    private OutputSink(WritableByteChannel target, ByteArrayOutputStream memory, Charset charset,
+                       FlushPolicy policy, int bufferSize) {
+        this.target = target;
+        this.memory = memory;
+        this.policy = policy;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        if (policy.intervalMillis() > 0) scheduleFlushes(policy.intervalMillis());
+    }
+
+    /**
+     * Writes to the process's standard output, bypassing {@code System.out}
+     * but using its encoding.
+     */
+    static OutputSink stdout(FlushPolicy policy) {
+        FileChannel channel = new FileOutputStream(FileDescriptor.out).getChannel();
+        return new OutputSink(channel, null, System.out.charset(), policy, DEFAULT_BUFFER_SIZE);
+    }
+
+    static OutputSink file(Path path, FlushPolicy policy) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new OutputSink(channel, null, System.out.charset(), policy, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Collects output in memory, for embedders that want to capture what a
+     * script prints; read it back with {@link #contents()}.
+     */
+    static OutputSink inMemory() {
+        ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        return new OutputSink(Channels.newChannel(memory), memory, Charset.defaultCharset(),
+                FlushPolicy.onExit(), DEFAULT_BUFFER_SIZE);
+    }
+
+    void println(String text) {
+        lock.lock();
+        try {
+            encode(CharBuffer.wrap(text));
+            encode(lineSeparator.rewind());
+            if (policy.everyLine()
+                    || policy.maxBufferedBytes() > 0 && buffer.position() >= policy.maxBufferedBytes()) {
+                drain();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void flush() {
+        lock.lock();
+        try {
+            drain();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    String contents() {
+        if (memory == null) throw new IllegalStateException("Output isn't collected in memory.");
+        flush();
+        return memory.toString(encoder.charset());
+    }
+
+    private void encode(CharBuffer text) {
+        while (encoder.encode(text, buffer, true).isOverflow()) drain();
+        while (encoder.flush(buffer).isOverflow()) drain();
+        encoder.reset();
+    }
+
+    private void drain() {
+        buffer.flip();
+        try {
+            while (!failed && buffer.hasRemaining()) target.write(buffer);
+        } catch (IOException e) {
+            failed = true;
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void scheduleFlushes(long intervalMillis) {
+        synchronized (OutputSink.class) {
+            if (flusher == null) {
+                flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "lox-output-flusher");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+        flusher.scheduleAtFixedRate(this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+}
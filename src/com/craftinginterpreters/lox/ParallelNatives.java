@@ -0,0 +1,181 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Data-parallel natives running Lox functions on the common fork-join pool:
+ * <pre>
+ *     var squares = parallelMap(square, numbers);
+ *     var total = parallelReduce(add, numbers, 0);
+ * </pre>
+ * Every leaf task runs on its own {@link Interpreter} that shares the caller's
+ * globals, so functions see the same closures and globals they would see when
+ * called normally. Those shared variables are read-only while the tasks run:
+ * assigning to anything that existed before the parallel call is a runtime
+ * error, while a task's own locals and parameters behave as usual. Maps and
+ * arrays reachable from several tasks aren't synchronized, so tasks should
+ * return results rather than write them into shared containers.
+ */
+class ParallelNatives extends NativeModule {
+    private static final int PARALLEL_MAP = 0;
+    private static final int PARALLEL_REDUCE = 1;
+
+    // Leaves per worker; a few per worker keeps them busy when elements vary in cost.
+    private static final int LEAVES_PER_WORKER = 4;
+
+    @Override
+    void install(Environment globals) {
+        define(globals, "parallelMap", 2, PARALLEL_MAP);
+        define(globals, "parallelReduce", 3, PARALLEL_REDUCE);
+    }
+
+    @Override
+    Object call(int id, Interpreter interpreter, List<Object> args) {
+        return switch (id) {
+            case PARALLEL_MAP -> parallelMap(
+                    interpreter,
+                    checkFunction(args.get(0), 1, "parallelMap"),
+                    ArrayNatives.checkArray(args.get(1), "parallelMap"));
+            case PARALLEL_REDUCE -> parallelReduce(
+                    interpreter,
+                    checkFunction(args.get(0), 2, "parallelReduce"),
+                    ArrayNatives.checkArray(args.get(1), "parallelReduce"),
+                    args.get(2));
+            default -> throw new IllegalArgumentException("Unknown native " + id);
+        };
+    }
+
+    private static LoxArray parallelMap(Interpreter interpreter, LoxCallable function, LoxArray input) {
+        int size = input.size();
+        Object[] results = new Object[size];
+        if (size > 0) {
+            long generation = Environment.startParallelSection();
+            ForkJoinPool.commonPool().invoke(new MapTask(interpreter, generation, function, input, results,
+                    0, size, leafSize(size)));
+        }
+        LoxArray output = new LoxArray(size);
+        for (Object result : results) output.add(result);
+        return output;
+    }
+
+    /**
+     * Folds each leaf's range from its first element and then combines the
+     * partial results, so `function` has to be associative; `initial` is only
+     * combined once, in front of everything else, and is the result for an
+     * empty array.
+     */
+    private static Object parallelReduce(Interpreter interpreter, LoxCallable function, LoxArray input,
+                                         Object initial) {
+        int size = input.size();
+        if (size == 0) return initial;
+        long generation = Environment.startParallelSection();
+        Object total = ForkJoinPool.commonPool().invoke(new ReduceTask(interpreter, generation, function, input,
+                0, size, leafSize(size)));
+        return interpreter.call(function, Arrays.asList(initial, total), interpreter.callLine());
+    }
+
+    private static int leafSize(int size) {
+        int leaves = ForkJoinPool.getCommonPoolParallelism() * LEAVES_PER_WORKER;
+        return Math.max(1, (size + leaves - 1) / leaves);
+    }
+
+    private static LoxCallable checkFunction(Object value, int arity, String function) {
+        if (value instanceof LoxCallable callable && callable.arity() == arity) return callable;
+        throw new NativeError(function + " expects a function taking " + arity + " argument"
+                + (arity == 1 ? "." : "s."));
+    }
+
+    private static class MapTask extends RecursiveAction {
+        private final Interpreter parent;
+        private final long generation;
+        private final LoxCallable function;
+        private final LoxArray input;
+        private final Object[] results;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+
+        MapTask(Interpreter parent, long generation, LoxCallable function, LoxArray input, Object[] results,
+                int from, int to, int leafSize) {
+            this.parent = parent;
+            this.generation = generation;
+            this.function = function;
+            this.input = input;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= leafSize) {
+                Interpreter worker = parent.forParallelTask(generation);
+                int line = worker.callLine();
+                try {
+                    for (int i = from; i < to; i++) {
+                        results[i] = worker.call(function, Collections.singletonList(input.get(i)), line);
+                    }
+                } finally {
+                    worker.releaseBudget();
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(
+                    new MapTask(parent, generation, function, input, results, from, middle, leafSize),
+                    new MapTask(parent, generation, function, input, results, middle, to, leafSize));
+        }
+    }
+
+    private static class ReduceTask extends RecursiveTask<Object> {
+        private final Interpreter parent;
+        private final long generation;
+        private final LoxCallable function;
+        private final LoxArray input;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+
+        ReduceTask(Interpreter parent, long generation, LoxCallable function, LoxArray input,
+                   int from, int to, int leafSize) {
+            this.parent = parent;
+            this.generation = generation;
+            this.function = function;
+            this.input = input;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+        }
+
+        @Override
+        protected Object compute() {
+            Interpreter worker = parent.forParallelTask(generation);
+            try {
+                return compute(worker, worker.callLine());
+            } finally {
+                worker.releaseBudget();
+            }
+        }
+
+        private Object compute(Interpreter worker, int line) {
+            if (to - from <= leafSize) {
+                Object accumulator = input.get(from);
+                for (int i = from + 1; i < to; i++) {
+                    accumulator = worker.call(function, Arrays.asList(accumulator, input.get(i)), line);
+                }
+                return accumulator;
+            }
+            int middle = (from + to) >>> 1;
+            ReduceTask right = new ReduceTask(parent, generation, function, input, middle, to, leafSize);
+            right.fork();
+            Object left = new ReduceTask(parent, generation, function, input, from, middle, leafSize).compute();
+            return worker.call(function, Arrays.asList(left, right.join()), line);
+        }
+    }
+}
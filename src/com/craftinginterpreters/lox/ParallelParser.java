@@ -0,0 +1,131 @@
+package com.craftinginterpreters.lox;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parses a large script on a fork-join pool. A pre-scan over the tokens
+ * finds top-level `fun`, `var` and `class` declarations that start a new
+ * statement, the script is cut into chunks at those points, and each chunk is
+ * parsed on its own with error reporting turned off. If any chunk has an
+ * error the whole script is parsed again sequentially, so errors are reported
+ * exactly as {@link Parser#parse()} reports them.
+ */
+class ParallelParser {
+    // Below this many tokens a chunk isn't worth a task of its own.
+    private static final int MIN_CHUNK_TOKENS = 4096;
+
+    static List<Stmt> parse(List<Token> tokens, boolean lazyBodies) {
+        List<Integer> starts = chunkStarts(tokens);
+        if (starts.size() > 2) {
+            ChunkTask task = new ChunkTask(tokens, starts, 0, starts.size() - 1, lazyBodies);
+            List<Stmt> statements = ForkJoinPool.commonPool().invoke(task);
+            if (statements != null) return statements;
+        }
+        return new Parser(tokens, true, lazyBodies).parse();
+    }
+
+    /**
+     * Returns the index each chunk starts at, the last entry being the EOF
+     * token. Only offsets outside of any parentheses or braces whose previous
+     * token ends a statement are considered.
+     */
+    private static List<Integer> chunkStarts(List<Token> tokens) {
+        int end = tokens.size() - 1;
+        int chunkSize = Math.max(MIN_CHUNK_TOKENS, end / (ForkJoinPool.getCommonPoolParallelism() * 4));
+        List<Integer> starts = new ArrayList<>();
+        starts.add(0);
+        int depth = 0;
+        for (int i = 0; i < end; i++) {
+            switch (tokens.get(i).type) {
+                case LEFT_PAREN, LEFT_BRACE -> depth++;
+                case RIGHT_PAREN, RIGHT_BRACE -> depth--;
+                case FUN, VAR, CLASS -> {
+                    if (depth == 0 && i - starts.get(starts.size() - 1) >= chunkSize && endsStatement(tokens.get(i - 1))) {
+                        starts.add(i);
+                    }
+                }
+                default -> {
+                }
+            }
+            // Unbalanced brackets; leave it to the sequential parser to report.
+            if (depth < 0) return List.of(0);
+        }
+        starts.add(end);
+        return starts;
+    }
+
+    private static boolean endsStatement(Token token) {
+        return token.type == TokenType.SEMICOLON || token.type == TokenType.RIGHT_BRACE;
+    }
+
+    /**
+     * A view of the tokens in [start, end) followed by the script's EOF token.
+     */
+    private static class Chunk extends AbstractList<Token> {
+        private final List<Token> tokens;
+        private final int start;
+        private final int size;
+
+        Chunk(List<Token> tokens, int start, int end) {
+            this.tokens = tokens;
+            this.start = start;
+            this.size = end - start + 1;
+        }
+
+        @Override
+        public Token get(int index) {
+            return index == size - 1 ? tokens.get(tokens.size() - 1) : tokens.get(start + index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private static class ChunkTask extends RecursiveTask<List<Stmt>> {
+        private final List<Token> tokens;
+        private final List<Integer> starts;
+        private final int from;
+        private final int to;
+        private final boolean lazyBodies;
+
+        ChunkTask(List<Token> tokens, List<Integer> starts, int from, int to, boolean lazyBodies) {
+            this.tokens = tokens;
+            this.starts = starts;
+            this.from = from;
+            this.to = to;
+            this.lazyBodies = lazyBodies;
+        }
+
+        /**
+         * Parses chunks [from, to) in source order, or returns null if any had an error.
+         */
+        @Override
+        protected List<Stmt> compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                ChunkTask left = new ChunkTask(tokens, starts, from, middle, lazyBodies);
+                ChunkTask right = new ChunkTask(tokens, starts, middle, to, lazyBodies);
+                left.fork();
+                List<Stmt> rightStatements = right.compute();
+                List<Stmt> leftStatements = left.join();
+                if (leftStatements == null || rightStatements == null) return null;
+                leftStatements.addAll(rightStatements);
+                return leftStatements;
+            }
+            Parser parser = new Parser(new Chunk(tokens, starts.get(from), starts.get(from + 1)), false, lazyBodies);
+            try {
+                List<Stmt> statements = parser.parse();
+                return parser.hadError() ? null : statements;
+            } catch (Parser.ParseError e) {
+                // Some syntax errors escape parse(); the sequential parse will hit it too.
+                return null;
+            }
+        }
+    }
+}
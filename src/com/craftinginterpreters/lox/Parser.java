@@ -6,16 +6,110 @@ import java.util.Arrays;
 import java.util.List;
 
 public class Parser {
+    private enum Precedence {
+        NONE, ASSIGNMENT, TERNARY, COMMA, OR, AND, EQUALITY, COMPARISON, TERM, FACTOR, UNARY, CALL;
+
+        private static final Precedence[] LEVELS = values();
+
+        Precedence next() {
+            return LEVELS[ordinal() + 1];
+        }
+    }
+
+    private interface PrefixParselet {
+        Expr parse(Parser parser, Token token);
+    }
+
+    private interface InfixParselet {
+        Expr parse(Parser parser, Expr left, Token operator);
+    }
+
+    /**
+     * How a token parses at the start of an expression and after one. Only
+     * left-associative operators may repeat at the same level.
+     */
+    private record Rule(PrefixParselet prefix, InfixParselet infix, Precedence precedence, boolean associative) {
+    }
+
+    private static final Rule[] RULES = new Rule[TokenType.values().length];
+
+    static {
+        Arrays.fill(RULES, new Rule(null, null, Precedence.NONE, false));
+        rule(TokenType.LEFT_PAREN, Parser::grouping, Parser::call, Precedence.CALL, true);
+        rule(TokenType.DOT, null, Parser::get, Precedence.CALL, true);
+        rule(TokenType.BANG, Parser::unary, null, Precedence.NONE, false);
+        rule(TokenType.MINUS, Parser::unary, Parser::binary, Precedence.TERM, true);
+        rule(TokenType.PLUS, Parser::missingOperand, Parser::binary, Precedence.TERM, true);
+        rule(TokenType.STAR, Parser::missingOperand, Parser::binary, Precedence.FACTOR, true);
+        rule(TokenType.SLASH, Parser::missingOperand, Parser::binary, Precedence.FACTOR, true);
+        rule(TokenType.EQUAL_EQUAL, Parser::missingOperand, Parser::binary, Precedence.EQUALITY, true);
+        rule(TokenType.BANG_EQUAL, Parser::missingOperand, Parser::binary, Precedence.EQUALITY, true);
+        rule(TokenType.LESS, Parser::missingOperand, Parser::binary, Precedence.COMPARISON, true);
+        rule(TokenType.LESS_EQUAL, Parser::missingOperand, Parser::binary, Precedence.COMPARISON, true);
+        rule(TokenType.GREATER, Parser::missingOperand, Parser::binary, Precedence.COMPARISON, true);
+        rule(TokenType.GREATER_EQUAL, Parser::missingOperand, Parser::binary, Precedence.COMPARISON, true);
+        rule(TokenType.AND, null, Parser::logical, Precedence.AND, false);
+        rule(TokenType.OR, null, Parser::logical, Precedence.OR, false);
+        rule(TokenType.COMMA, null, Parser::binary, Precedence.COMMA, true);
+        rule(TokenType.QUESTION, null, Parser::ternary, Precedence.TERNARY, false);
+        rule(TokenType.EQUAL, null, Parser::assignment, Precedence.ASSIGNMENT, false);
+        rule(TokenType.NUMBER, Parser::literal, null, Precedence.NONE, false);
+        rule(TokenType.STRING, Parser::literal, null, Precedence.NONE, false);
+        rule(TokenType.NIL, Parser::literal, null, Precedence.NONE, false);
+        rule(TokenType.FALSE, Parser::literal, null, Precedence.NONE, false);
+        rule(TokenType.TRUE, Parser::literal, null, Precedence.NONE, false);
+        rule(TokenType.IDENTIFIER, Parser::variable, null, Precedence.NONE, false);
+        rule(TokenType.THIS, Parser::thisExpr, null, Precedence.NONE, false);
+        rule(TokenType.SUPER, Parser::superExpr, null, Precedence.NONE, false);
+    }
+
+    private static void rule(TokenType type, PrefixParselet prefix, InfixParselet infix,
+                             Precedence precedence, boolean associative) {
+        RULES[type.ordinal()] = new Rule(prefix, infix, precedence, associative);
+    }
+
     private boolean parsingCallArgs;
 
-    private static class ParseError extends RuntimeException {
+    private enum ClassType {
+        NONE, CLASS, SUBCLASS
+    }
+
+    private ClassType currentClass = ClassType.NONE;
+    private boolean parsingInitializer;
+
+    static class ParseError extends RuntimeException {
     }
 
     private final List<Token> tokens;
+    // When false, errors are only recorded in hadError and errors instead of being reported.
+    private final boolean reportErrors;
+    // Whether function bodies are only checked here and built on first call.
+    private final boolean lazyBodies;
+    // Set while building a body that has already been checked.
+    private boolean checked;
     private int current;
+    private boolean hadError;
+    private final List<String> errors = new ArrayList<>();
 
     Parser(List<Token> tokens) {
+        this(tokens, true, false);
+    }
+
+    Parser(List<Token> tokens, boolean reportErrors, boolean lazyBodies) {
         this.tokens = tokens;
+        this.reportErrors = reportErrors;
+        this.lazyBodies = lazyBodies;
+    }
+
+    boolean hadError() {
+        return hadError;
+    }
+
+    /**
+     * The errors found, in the form they'd be reported in, when not reporting them.
+     */
+    List<String> errors() {
+        return errors;
     }
 
     public List<Stmt> parse() {
@@ -27,9 +121,13 @@ public class Parser {
     }
 
     private Stmt declaration() {
+        int line = peek().line;
         try {
             if (match(TokenType.VAR)) {
-                return varDecl();
+                return at(line, varDecl());
+            }
+            if (match(TokenType.CLASS)) {
+                return at(line, classDecl());
             }
         } catch (ParseError e) {
             synchronize();
@@ -38,6 +136,32 @@ public class Parser {
         return statement();
     }
 
+    private Stmt classDecl() {
+        Token name = consume(TokenType.IDENTIFIER, "Expect class name.");
+        Expr.Variable superclass = null;
+        if (match(TokenType.LESS)) {
+            consume(TokenType.IDENTIFIER, "Expect superclass name.");
+            superclass = new Expr.Variable(previous());
+            if (superclass.identifier.lexeme.equals(name.lexeme)) {
+                error(superclass.identifier, "A class can't inherit from itself.");
+            }
+        }
+        consume(TokenType.LEFT_BRACE, "Expect '{' before class body.");
+
+        ClassType enclosingClass = currentClass;
+        currentClass = superclass == null ? ClassType.CLASS : ClassType.SUBCLASS;
+        List<Stmt.Function> methods = new ArrayList<>();
+        try {
+            while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
+                methods.add((Stmt.Function) at(peek().line, functionStatement("method")));
+            }
+        } finally {
+            currentClass = enclosingClass;
+        }
+        consume(TokenType.RIGHT_BRACE, "Expect '}' after class body.");
+        return new Stmt.Class(name, superclass, methods);
+    }
+
     private Stmt varDecl() {
         Token varName = consume(TokenType.IDENTIFIER, "Expect variable name.");
         Expr initializer = null;
@@ -49,6 +173,19 @@ public class Parser {
     }
 
     private Stmt statement() {
+        int line = peek().line;
+        return at(line, unlocatedStatement());
+    }
+
+    /**
+     * Records the line a statement starts on, which tools such as coverage report by.
+     */
+    private static Stmt at(int line, Stmt statement) {
+        if (statement != null) statement.line = line;
+        return statement;
+    }
+
+    private Stmt unlocatedStatement() {
         if (match(TokenType.PRINT)) return printStatement();
         if (match(TokenType.LEFT_BRACE)) return new Stmt.Block(block());
         if (match(TokenType.IF)) return ifStatement();
@@ -56,6 +193,7 @@ public class Parser {
         if (match(TokenType.FOR)) return forLoopStatement();
         if (match(TokenType.FUN)) return functionStatement("function");
         if (match(TokenType.RETURN)) return returnStmt();
+        if (match(TokenType.IMPORT)) return importStatement();
         return expressionStatement();
     }
 
@@ -73,26 +211,88 @@ public class Parser {
         }
         consume(TokenType.RIGHT_PAREN, "Expect ')' after " + kind + " name.");
         consume(TokenType.LEFT_BRACE, "Expect '{' before " + kind + " body.");
-        List<Stmt> body = block();
+        boolean enclosingInitializer = parsingInitializer;
+        parsingInitializer = kind.equals("method") && fnName.lexeme.equals("init");
+        List<Stmt> body;
+        try {
+            if (lazyBodies) return lazyFunction(fnName, parameters);
+            body = block();
+        } finally {
+            parsingInitializer = enclosingInitializer;
+        }
         return new Stmt.Function(fnName, parameters, body);
     }
 
+    /**
+     * Parses a function body only to report its errors and remembers where it
+     * starts, so its statements can be built on first call. Bodies inside one
+     * that is being built have been checked along with it and are just skipped.
+     */
+    private Stmt lazyFunction(Token fnName, List<Token> parameters) {
+        int start = current;
+        if (checked) {
+            skipBody();
+            return new Stmt.Function(fnName, parameters, new LazyBody(tokens, start));
+        }
+        boolean hadEarlierError = hadError;
+        hadError = false;
+        List<Stmt> body = block();
+        boolean bodyHadError = hadError;
+        hadError |= hadEarlierError;
+        // A body with errors keeps its statements, so it runs just as it would if parsed eagerly.
+        if (bodyHadError) return new Stmt.Function(fnName, parameters, body);
+        return new Stmt.Function(fnName, parameters, new LazyBody(tokens, start));
+    }
+
+    private void skipBody() {
+        int depth = 1;
+        while (depth > 0 && !isAtEnd()) {
+            TokenType type = advance().type;
+            if (type == TokenType.LEFT_BRACE) {
+                depth++;
+            } else if (type == TokenType.RIGHT_BRACE) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Builds the statements of a lazily parsed body starting at {@code start}.
+     */
+    List<Stmt> parseCheckedBody(int start) {
+        current = start;
+        checked = true;
+        return block();
+    }
+
     private Stmt returnStmt() {
         Token returnKeyword = previous();
         Expr returnExpression = check(TokenType.SEMICOLON) ? null : expression();
+        if (returnExpression != null && parsingInitializer) {
+            error(returnKeyword, "Can't return a value from an initializer.");
+        }
         consume(TokenType.SEMICOLON, "Expect ';' after return statement.");
         return new Stmt.Return(returnKeyword, returnExpression);
     }
 
+    private Stmt importStatement() {
+        Token keyword = previous();
+        Token path = consume(TokenType.STRING, "Expect module path after 'import'.");
+        consume(TokenType.SEMICOLON, "Expect ';' after import.");
+        return new Stmt.Import(keyword, path);
+    }
+
     private Stmt forLoopStatement() {
+        Token keyword = previous();
+        int line = keyword.line;
         consume(TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
         Stmt initializer;
         if (match(TokenType.SEMICOLON)) {
             initializer = null;
         } else if (match(TokenType.VAR)) {
-            initializer = varDecl();
+            initializer = at(previous().line, varDecl());
         } else {
-            initializer = expressionStatement();
+            initializer = at(peek().line, expressionStatement());
         }
         Expr condition = null;
         if (!check(TokenType.SEMICOLON)) {
@@ -100,19 +300,20 @@ public class Parser {
         }
         consume(TokenType.SEMICOLON, "Expect ';' after for loop initializer.");
         Expr increment = null;
+        int incrementLine = peek().line;
         if (!check(TokenType.RIGHT_PAREN)) {
             increment = expression();
         }
         consume(TokenType.RIGHT_PAREN, "Expect ')' after for clauses.");
         Stmt body = statement();
         if (increment != null) {
-            body = new Stmt.Block(Arrays.asList(
+            body = at(line, new Stmt.Block(Arrays.asList(
                     body,
-                    new Stmt.Expression(increment)
-            ));
+                    at(incrementLine, new Stmt.Expression(increment))
+            )));
         }
         if (condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
+        body = at(line, new Stmt.While(keyword, condition, body));
         if (initializer != null) body = new Stmt.Block(Arrays.asList( initializer, body ));
         return body;
     }
@@ -127,11 +328,12 @@ public class Parser {
     }
 
     private Stmt whileStatement() {
+        Token keyword = previous();
         consume(TokenType.LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
         consume(TokenType.RIGHT_PAREN, "Expect ')' after while condition");
         Stmt whileBlock = statement();
-        return new Stmt.While(condition, whileBlock);
+        return new Stmt.While(keyword, condition, whileBlock);
     }
 
     private List<Stmt> block() {
@@ -157,146 +359,83 @@ public class Parser {
     }
 
     private Expr expression() {
-        return assignment();
-    }
-
-    private Expr assignment() {
-        Expr expr = ternary();
-        if (match(TokenType.EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
-            if (expr instanceof Expr.Variable) {
-                Token var = ((Expr.Variable) expr).identifier;
-                return new Expr.Assign(var, value);
-            }
-            error(equals, "invalid assignment target.");
+        return parsePrecedence(Precedence.ASSIGNMENT);
+    }
+
+    /**
+     * Parses an expression made of operators binding at least as tightly as
+     * {@code precedence}. After a non-associative operator only operators
+     * binding more loosely may follow, so `a or b or c` stays an error just as
+     * in the grammar's one-operator rules for `or`, `and`, `?:` and `=`.
+     */
+    private Expr parsePrecedence(Precedence precedence) {
+        PrefixParselet prefix = RULES[peek().type.ordinal()].prefix;
+        if (prefix == null) throw error(peek(), "Expect expression.");
+        Expr left = prefix.parse(this, advance());
+
+        int lowest = precedence.ordinal();
+        int highest = Precedence.CALL.ordinal();
+        while (true) {
+            Token operator = peek();
+            Rule rule = RULES[operator.type.ordinal()];
+            int level = rule.precedence.ordinal();
+            if (rule.infix == null || level < lowest || level > highest) break;
+            // Inside call arguments a comma separates arguments instead.
+            if (operator.type == TokenType.COMMA && parsingCallArgs) break;
+            advance();
+            left = rule.infix.parse(this, left, operator);
+            highest = rule.associative ? level : level - 1;
         }
-        return expr;
+        return left;
     }
 
-    private Expr ternary() {
-        Expr expr = commaSeparated();
-        if (match(TokenType.QUESTION)) {
-            Token opOne = previous();
-            Expr then = commaSeparated();
-            consume(TokenType.COLON, "Ternary operator requires an else condition followed by a ':'");
-            Token opTwo = previous();
-            Expr otherwise = commaSeparated();
-            expr = new Expr.Ternary(expr, opOne, then, opTwo, otherwise);
+    private Expr assignment(Expr target, Token equals) {
+        Expr value = parsePrecedence(Precedence.ASSIGNMENT);
+        if (target instanceof Expr.Variable) {
+            Token var = ((Expr.Variable) target).identifier;
+            return Fusion.assign(new Expr.Assign(var, value));
+        } else if (target instanceof Expr.Get get) {
+            return new Expr.Set(get.object, get.name, value);
         }
-        return expr;
+        error(equals, "invalid assignment target.");
+        return target;
     }
 
-    private Expr commaSeparated() {
-        Expr expr = or();
-        if (parsingCallArgs) return expr;
-        while (match(TokenType.COMMA)) {
-            Token op = previous();
-            Expr right = or();
-            expr = new Expr.Binary(expr, op, right);
-        }
-        return expr;
+    private Expr ternary(Expr condition, Token opOne) {
+        Expr then = parsePrecedence(Precedence.COMMA);
+        consume(TokenType.COLON, "Ternary operator requires an else condition followed by a ':'");
+        Token opTwo = previous();
+        Expr otherwise = parsePrecedence(Precedence.COMMA);
+        return new Expr.Ternary(condition, opOne, then, opTwo, otherwise);
     }
 
-    private Expr or() {
-        Expr expr = and();
-        if (match(TokenType.OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-        return expr;
+    private Expr binary(Expr left, Token operator) {
+        Precedence precedence = RULES[operator.type.ordinal()].precedence;
+        Expr right = parsePrecedence(precedence.next());
+        return Fusion.binary(new Expr.Binary(left, operator, right));
     }
 
-    private Expr and() {
-        Expr expr = equality();
-        if (match(TokenType.AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-        return expr;
+    private Expr logical(Expr left, Token operator) {
+        Precedence precedence = RULES[operator.type.ordinal()].precedence;
+        Expr right = parsePrecedence(precedence.next());
+        return new Expr.Logical(left, operator, right);
     }
 
-    private Expr equality() {
-        Expr expr = comparison();
-        while (match(TokenType.EQUAL_EQUAL, TokenType.BANG_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
+    private Expr unary(Token operator) {
+        return new Expr.Unary(operator, parsePrecedence(Precedence.UNARY));
     }
 
-    private Expr comparison() {
-        Expr expr = term();
-        while (
-                match(
-                        TokenType.LESS,
-                        TokenType.LESS_EQUAL,
-                        TokenType.GREATER,
-                        TokenType.GREATER_EQUAL
-                )
-        ) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
+    private Expr missingOperand(Token operator) {
+        throw error(peek(), "Expect an operand before '" + peek().lexeme + "'");
     }
 
-    private Expr term() {
-        Expr expr = factor();
-        while (match(TokenType.PLUS, TokenType.MINUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr factor() {
-        Expr expr = unary();
-        while (match(TokenType.STAR, TokenType.SLASH)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr unary() {
-        if (match(TokenType.BANG, TokenType.MINUS)) {
-            Token operator = previous();
-            return new Expr.Unary(operator, unary());
-        } else if (
-                match(
-                        TokenType.EQUAL_EQUAL,
-                        TokenType.BANG_EQUAL,
-                        TokenType.LESS,
-                        TokenType.LESS_EQUAL,
-                        TokenType.GREATER,
-                        TokenType.GREATER_EQUAL,
-                        TokenType.PLUS,
-                        TokenType.STAR,
-                        TokenType.SLASH
-                )
-        ) {
-            throw error(peek(), "Expect an operand before '" + peek().lexeme + "'");
-        }
-        return call();
+    private Expr call(Expr callee, Token paren) {
+        return finishCall(callee);
     }
 
-    private Expr call() {
-        Expr callee = primary();
-        while (true) {
-            if (match(TokenType.LEFT_PAREN)) {
-                callee = finishCall(callee);
-            } else {
-                break;
-            }
-        }
-        return callee;
+    private Expr get(Expr object, Token dot) {
+        Token name = consume(TokenType.IDENTIFIER, "Expect property name after '.'.");
+        return new Expr.Get(object, name);
     }
 
     private Expr finishCall(Expr callee) {
@@ -319,22 +458,39 @@ public class Parser {
         return callee;
     }
 
-    private Expr primary() {
-        if (match(TokenType.NUMBER, TokenType.STRING)) return new Expr.Literal(previous().literal);
-        if (match(TokenType.NIL)) return new Expr.Literal(null);
-        if (match(TokenType.FALSE)) return new Expr.Literal(false);
-        if (match(TokenType.TRUE)) return new Expr.Literal(true);
-
-        if (match(TokenType.LEFT_PAREN)) {
-            Expr expr = new Expr.Grouping(expression());
-            consume(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
-            return expr;
+    private Expr literal(Token token) {
+        switch (token.type) {
+            case NIL: return new Expr.Literal(null);
+            case FALSE: return new Expr.Literal(false);
+            case TRUE: return new Expr.Literal(true);
+            default: return new Expr.Literal(token.literal);
         }
+    }
+
+    private Expr grouping(Token paren) {
+        Expr expr = new Expr.Grouping(expression());
+        consume(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
+        return expr;
+    }
 
-        if (match(TokenType.IDENTIFIER)) {
-            return new Expr.Variable(previous());
+    private Expr variable(Token name) {
+        return new Expr.Variable(name);
+    }
+
+    private Expr thisExpr(Token keyword) {
+        if (currentClass == ClassType.NONE) error(keyword, "Can't use 'this' outside of a class.");
+        return new Expr.This(keyword);
+    }
+
+    private Expr superExpr(Token keyword) {
+        if (currentClass == ClassType.NONE) {
+            error(keyword, "Can't use 'super' outside of a class.");
+        } else if (currentClass == ClassType.CLASS) {
+            error(keyword, "Can't use 'super' in a class with no superclass.");
         }
-        throw error(peek(), "Expect expression.");
+        consume(TokenType.DOT, "Expect '.' after 'super'.");
+        Token method = consume(TokenType.IDENTIFIER, "Expect superclass method name.");
+        return new Expr.Super(keyword, method);
     }
 
     private Token consume(TokenType type, String s) {
@@ -375,7 +531,13 @@ public class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        hadError = true;
+        if (reportErrors) {
+            Lox.error(token, message);
+        } else {
+            String where = token.type == TokenType.EOF ? " at end-of-file" : " at '" + token.lexeme + "'";
+            errors.add("[line: " + token.line + "] Error" + where + ": " + message);
+        }
         return new ParseError();
     }
 
@@ -393,6 +555,7 @@ public class Parser {
                 case FOR:
                 case WHILE:
                 case PRINT:
+                case IMPORT:
                     return;
             }
             advance();
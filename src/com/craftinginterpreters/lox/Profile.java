@@ -0,0 +1,242 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+/**
+ * What runs of a script have learned about it, saved so that the next run
+ * starts out specialized rather than learning it all again. Entries are
+ * keyed by where they are in the source, as line:column of a token:
+ *
+ * <pre>
+ * lox-profile 1c9d2a8e       checksum of the script
+ * numbers 12:17              arithmetic whose operator is at 12:17 has only seen numbers
+ * inline 14:22 max           the call whose `)` is at 14:22 inlines max()
+ * loop 9:1 2000000           the loop at 9:1 has run 2000000 iterations, over all runs
+ * </pre>
+ *
+ * Applying a profile marks those operations {@link Expr.Binary#numeric}
+ * and has those call sites inline the same function as soon as it is first
+ * called, rather than after warming up. Both are guarded as usual, so a
+ * profile that no longer fits costs a deoptimization and nothing else.
+ * Loop counts add up across runs, to show where a script spends its time.
+ * A profile of different source is ignored, since its locations would
+ * point at the wrong code.
+ *
+ * <p>Only the script's own code is profiled, not the modules it imports.
+ * Bodies that --lazy-parse hasn't parsed yet when the script starts aren't
+ * specialized, though what they do is still saved. With --flat-ast a
+ * profile is used but not updated.
+ */
+final class Profile {
+    private static final String HEADER = "lox-profile";
+
+    private final long checksum;
+    private final Set<String> numbers = new HashSet<>();
+    private final Map<String, String> inlined = new HashMap<>();
+    private final Map<String, Long> loops = new HashMap<>();
+    // The tree being run, once there is one whose profile can be saved.
+    private List<Stmt> observed;
+
+    private Profile(long checksum) {
+        this.checksum = checksum;
+    }
+
+    /**
+     * Reads the profile saved for a script, or starts an empty one if there
+     * is none for this version of it.
+     */
+    static Profile load(Path path, byte[] source) {
+        Profile profile = new Profile(checksum(source));
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(path);
+        } catch (NoSuchFileException e) {
+            return profile;
+        } catch (IOException e) {
+            System.err.println("Could not read profile " + path + ": " + e.getMessage());
+            return profile;
+        }
+        if (lines.isEmpty() || !lines.get(0).equals(HEADER + " " + Long.toHexString(profile.checksum))) {
+            return profile;
+        }
+        try {
+            for (String line : lines.subList(1, lines.size())) {
+                String[] fields = line.split(" ");
+                switch (fields[0]) {
+                    case "numbers" -> profile.numbers.add(fields[1]);
+                    case "inline" -> profile.inlined.put(fields[1], fields[2]);
+                    case "loop" -> profile.loops.put(fields[1], Long.parseLong(fields[2]));
+                    default -> throw new IllegalArgumentException(line);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Ignoring malformed profile " + path + ".");
+            return new Profile(profile.checksum);
+        }
+        return profile;
+    }
+
+    /**
+     * Specializes a tree as the profile says, before it runs.
+     */
+    void apply(List<Stmt> statements) {
+        Sites sites = new Sites();
+        sites.statements(statements);
+        for (Expr.Binary binary : sites.binaries) {
+            if (numbers.contains(location(binary.operator))) {
+                binary.numeric = true;
+                binary.observed = Expr.Binary.NUMBERS;
+            }
+        }
+        for (Expr.Call call : sites.calls) {
+            String function = inlined.get(location(call.paren));
+            if (function == null) continue;
+            if (call.inline == null) call.inline = new InlineCache();
+            call.inline.expect(function);
+        }
+        for (Stmt.While loop : sites.loops) {
+            loop.iterations += loops.getOrDefault(location(loop.keyword), 0L);
+        }
+    }
+
+    /**
+     * Has {@link #save} write out what happens as the tree runs.
+     */
+    void observe(List<Stmt> statements) {
+        observed = statements;
+    }
+
+    void save(Path path) throws IOException {
+        if (observed == null) return;
+        Sites sites = new Sites();
+        sites.statements(observed);
+        StringBuilder profile = new StringBuilder();
+        profile.append(HEADER).append(' ').append(Long.toHexString(checksum)).append('\n');
+        for (Expr.Binary binary : sites.binaries) {
+            if (binary.observed == Expr.Binary.NUMBERS && isArithmetic(binary.operator.type)
+                    && binary.operator.column > 0) {
+                profile.append("numbers ").append(location(binary.operator)).append('\n');
+            }
+        }
+        for (Expr.Call call : sites.calls) {
+            String function = call.inline != null ? call.inline.inlined() : null;
+            if (function != null && call.paren.column > 0) {
+                profile.append("inline ").append(location(call.paren)).append(' ').append(function).append('\n');
+            }
+        }
+        for (Stmt.While loop : sites.loops) {
+            if (loop.iterations > 0 && loop.keyword.column > 0) {
+                profile.append("loop ").append(location(loop.keyword)).append(' ').append(loop.iterations).append('\n');
+            }
+        }
+        Files.writeString(path, profile);
+    }
+
+    private static String location(Token token) {
+        return token.line + ":" + token.column;
+    }
+
+    private static boolean isArithmetic(TokenType operator) {
+        return switch (operator) {
+            case MINUS, STAR, SLASH, PLUS, LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> true;
+            default -> false;
+        };
+    }
+
+    private static long checksum(byte[] bytes) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    /**
+     * The nodes a profile has entries for, gathered from a tree in source order.
+     */
+    private static final class Sites {
+        final List<Expr.Binary> binaries = new ArrayList<>();
+        final List<Expr.Call> calls = new ArrayList<>();
+        final List<Stmt.While> loops = new ArrayList<>();
+
+        void statements(List<Stmt> statements) {
+            for (Stmt statement : statements) statement(statement);
+        }
+
+        void statement(Stmt statement) {
+            if (statement instanceof Stmt.Expression expressionStatement) {
+                expression(expressionStatement.expression);
+            } else if (statement instanceof Stmt.Print print) {
+                expression(print.expression);
+            } else if (statement instanceof Stmt.Var var) {
+                expression(var.initializer);
+            } else if (statement instanceof Stmt.Block block) {
+                statements(block.statements);
+            } else if (statement instanceof Stmt.If ifStmt) {
+                expression(ifStmt.condition);
+                statement(ifStmt.thenStatements);
+                statement(ifStmt.elseStatements);
+            } else if (statement instanceof Stmt.While whileStmt) {
+                loops.add(whileStmt);
+                expression(whileStmt.condition);
+                statement(whileStmt.whileBlock);
+            } else if (statement instanceof Stmt.Function function) {
+                function(function);
+            } else if (statement instanceof Stmt.Return returnStmt) {
+                expression(returnStmt.returnExpression);
+            } else if (statement instanceof Stmt.Class classStmt) {
+                for (Stmt.Function method : classStmt.methods) function(method);
+            } else if (statement instanceof Stmt.Probe probe) {
+                statement(probe.statement);
+            }
+        }
+
+        void function(Stmt.Function function) {
+            if (function.isParsed()) statements(function.body());
+        }
+
+        void expression(Expr expr) {
+            if (expr instanceof Expr.Binary binary) {
+                binaries.add(binary);
+                expression(binary.left);
+                expression(binary.right);
+            } else if (expr instanceof Expr.Unary unary) {
+                expression(unary.right);
+            } else if (expr instanceof Expr.Grouping grouping) {
+                expression(grouping.expression);
+            } else if (expr instanceof Expr.Ternary ternary) {
+                expression(ternary.left);
+                expression(ternary.mid);
+                expression(ternary.right);
+            } else if (expr instanceof Expr.Assign assign) {
+                expression(assign.value);
+            } else if (expr instanceof Expr.Logical logical) {
+                expression(logical.left);
+                expression(logical.right);
+            } else if (expr instanceof Expr.Call call) {
+                calls.add(call);
+                expression(call.callee);
+                for (Expr arg : call.args) expression(arg);
+            } else if (expr instanceof Expr.Get get) {
+                expression(get.object);
+            } else if (expr instanceof Expr.Set set) {
+                expression(set.object);
+                expression(set.value);
+            } else if (expr instanceof Expr.FusedBinary fused) {
+                expression(fused.original);
+            } else if (expr instanceof Expr.CompoundAssign compound) {
+                expression(compound.original);
+            } else if (expr instanceof Expr.Probe probe) {
+                expression(probe.expression);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * A monomorphic inline cache entry for a property access site, valid for
+ * instances whose shape is {@link #shape}. Entries are immutable and replaced
+ * whole, so sites shared between threads never see a torn entry.
+ */
+class PropertyCache {
+    final Shape shape;
+    // Slot of the field, or -1 if the name isn't a field of this shape.
+    final int slot;
+    // For reads of a non-field: the method the name refers to, if any.
+    final LoxFunction method;
+    // For writes of a new field: the shape instances move to.
+    final Shape transition;
+
+    private PropertyCache(Shape shape, int slot, LoxFunction method, Shape transition) {
+        this.shape = shape;
+        this.slot = slot;
+        this.method = method;
+        this.transition = transition;
+    }
+
+    static PropertyCache forGet(Shape shape, String name) {
+        int slot = shape.slotOf(name);
+        return new PropertyCache(shape, slot, slot < 0 ? shape.klass.findMethod(name) : null, null);
+    }
+
+    static PropertyCache forSet(Shape shape, String name) {
+        int slot = shape.slotOf(name);
+        if (slot >= 0) return new PropertyCache(shape, slot, null, null);
+        Shape transition = shape.withField(name);
+        return new PropertyCache(shape, transition.slotCount - 1, null, transition);
+    }
+}
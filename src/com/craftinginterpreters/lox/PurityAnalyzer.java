@@ -0,0 +1,247 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides whether a function body, taken on its own, could be pure: it must
+ * not print, declare nested functions, assign to anything but its own locals,
+ * or read variables from outside the function except to call them. The names
+ * it calls that way are collected so the caller can check, once they're
+ * bound, that they are pure too.
+ */
+class PurityAnalyzer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static class Result {
+        final boolean pure;
+        final Set<String> calledNames;
+
+        Result(boolean pure, Set<String> calledNames) {
+            this.pure = pure;
+            this.calledNames = calledNames;
+        }
+    }
+
+    private final List<Set<String>> scopes = new ArrayList<>();
+    private final Set<String> calledNames = new HashSet<>();
+    private boolean pure = true;
+
+    static Result analyze(Stmt.Function function) {
+        PurityAnalyzer analyzer = new PurityAnalyzer();
+        analyzer.beginScope();
+        for (Token parameter : function.parameters) analyzer.declare(parameter.lexeme);
+        analyzer.analyzeStatements(function.body());
+        return new Result(analyzer.pure, analyzer.calledNames);
+    }
+
+    private void analyzeStatements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (!pure) return;
+            statement.accept(this);
+        }
+    }
+
+    private void analyze(Expr expr) {
+        if (pure) expr.accept(this);
+    }
+
+    private void beginScope() {
+        scopes.add(new HashSet<>());
+    }
+
+    private void endScope() {
+        scopes.remove(scopes.size() - 1);
+    }
+
+    private void declare(String name) {
+        scopes.get(scopes.size() - 1).add(name);
+    }
+
+    private boolean isLocal(String name) {
+        for (Set<String> scope : scopes) {
+            if (scope.contains(name)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Void visitUnary(Expr.Unary expr) {
+        analyze(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitBinary(Expr.Binary expr) {
+        analyze(expr.left);
+        analyze(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitGrouping(Expr.Grouping expr) {
+        analyze(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitTernary(Expr.Ternary expr) {
+        analyze(expr.left);
+        analyze(expr.mid);
+        analyze(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariable(Expr.Variable variable) {
+        if (!isLocal(variable.identifier.lexeme)) pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitAssignment(Expr.Assign assign) {
+        if (!isLocal(assign.var.lexeme)) pure = false;
+        analyze(assign.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalOperator(Expr.Logical logical) {
+        analyze(logical.left);
+        analyze(logical.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call call) {
+        if (call.callee instanceof Expr.Variable variable && !isLocal(variable.identifier.lexeme)) {
+            calledNames.add(variable.identifier.lexeme);
+        } else {
+            // Calling a local or computed value could call anything.
+            pure = false;
+        }
+        for (Expr arg : call.args) analyze(arg);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get get) {
+        // Fields are mutable state shared with the caller.
+        pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set set) {
+        pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This thisExpr) {
+        pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super superExpr) {
+        pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitFusedBinary(Expr.FusedBinary fused) {
+        analyze(fused.original);
+        return null;
+    }
+
+    @Override
+    public Void visitCompoundAssign(Expr.CompoundAssign compound) {
+        analyze(compound.original);
+        return null;
+    }
+
+    @Override
+    public Void visitProbe(Expr.Probe probe) {
+        // Memoized calls would skip the listener, so instrumented code never counts as pure.
+        pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression expressionStatement) {
+        analyze(expressionStatement.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print printStatement) {
+        pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var var) {
+        if (var.initializer != null) analyze(var.initializer);
+        declare(var.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block block) {
+        beginScope();
+        analyzeStatements(block.statements);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If ifStmt) {
+        analyze(ifStmt.condition);
+        if (pure) ifStmt.thenStatements.accept(this);
+        if (pure && ifStmt.elseStatements != null) ifStmt.elseStatements.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(Stmt.While whileStmt) {
+        analyze(whileStmt.condition);
+        if (pure) whileStmt.whileBlock.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function function) {
+        pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class classStmt) {
+        pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import importStmt) {
+        pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitProbeStmt(Stmt.Probe probe) {
+        pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return returnStmt) {
+        if (returnStmt.returnExpression != null) analyze(returnStmt.returnExpression);
+        return null;
+    }
+}
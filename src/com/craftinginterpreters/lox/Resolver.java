@@ -0,0 +1,328 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Marks the variable reads and assignments that can only ever refer to a
+ * global, so the interpreter can go straight to the global's cell. A name is
+ * global at a given use when no enclosing block or function declares it
+ * anywhere, before or after the use: a closure called before a later local
+ * declaration runs would see the global, but once it has run the same
+ * expression sees the local, so such names keep the dynamic lookup.
+ *
+ * <p>It also works out which local variables each function uses from the
+ * scopes around it, so that closures capture just those. Methods run in a
+ * scope declaring `this`, inside one declaring `super` if the class has a
+ * superclass, as they do at runtime.
+ */
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    /**
+     * A function whose body is being resolved.
+     */
+    private static class FunctionScope {
+        // Index of the function's outermost scope, and of the scope it's defined in.
+        final int start;
+        final int defined;
+        // Captured names and how far out from the defining scope they're declared.
+        final Map<String, Integer> captures = new LinkedHashMap<>();
+        // Set if it contains a function whose body isn't parsed yet, whose captures can't be known.
+        boolean capturesEverything;
+
+        FunctionScope(int start) {
+            this.start = start;
+            this.defined = start - 1;
+        }
+    }
+
+    private final List<Set<String>> scopes = new ArrayList<>();
+    private final List<FunctionScope> functions = new ArrayList<>();
+    // Scopes below this belong to functions outside the code being resolved.
+    private final int firstScope;
+
+    Resolver() {
+        firstScope = 0;
+    }
+
+    /**
+     * Creates a resolver for a lazily parsed body, which runs inside scopes
+     * declaring {@code enclosingLocals}.
+     */
+    Resolver(Set<String> enclosingLocals) {
+        scopes.add(enclosingLocals);
+        firstScope = 1;
+    }
+
+    void resolveFunction(List<Token> parameters, List<Stmt> body) {
+        resolveScope(parameters, body);
+    }
+
+    void resolve(List<Stmt> statements) {
+        for (Stmt statement : statements) resolve(statement);
+    }
+
+    private void resolve(Stmt statement) {
+        // Statements that failed to parse are left as nulls.
+        if (statement != null) statement.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        if (expr != null) expr.accept(this);
+    }
+
+    private void resolveScope(List<Token> parameters, List<Stmt> statements) {
+        Set<String> scope = new HashSet<>();
+        for (Token parameter : parameters) scope.add(parameter.lexeme);
+        for (Stmt statement : statements) collectDeclarations(statement, scope);
+        scopes.add(scope);
+        resolve(statements);
+        scopes.remove(scopes.size() - 1);
+    }
+
+    /**
+     * Adds the names a statement declares in the scope it runs in. The body of
+     * an if or while that isn't a block runs in that same scope.
+     */
+    private static void collectDeclarations(Stmt statement, Set<String> scope) {
+        if (statement instanceof Stmt.Var var) {
+            scope.add(var.name.lexeme);
+        } else if (statement instanceof Stmt.Function function) {
+            scope.add(function.fnName.lexeme);
+        } else if (statement instanceof Stmt.Class classStmt) {
+            scope.add(classStmt.name.lexeme);
+        } else if (statement instanceof Stmt.If ifStmt) {
+            collectDeclarations(ifStmt.thenStatements, scope);
+            if (ifStmt.elseStatements != null) collectDeclarations(ifStmt.elseStatements, scope);
+        } else if (statement instanceof Stmt.While whileStmt) {
+            collectDeclarations(whileStmt.whileBlock, scope);
+        }
+    }
+
+    private boolean isGlobal(String name) {
+        for (Set<String> scope : scopes) {
+            if (scope.contains(name)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records a use of a local, which the functions between the use and the
+     * declaration need to capture. A function nested in another that captures
+     * the name too finds it by name in that function's closure.
+     */
+    private void use(String name) {
+        int declared = scopes.size() - 1;
+        while (declared >= 0 && !scopes.get(declared).contains(name)) declared--;
+        if (declared < 0) return;
+        for (int i = functions.size() - 1; i >= 0; i--) {
+            FunctionScope function = functions.get(i);
+            if (function.start <= declared) return;
+            int enclosingStart = i > 0 ? functions.get(i - 1).start : firstScope;
+            function.captures.putIfAbsent(name, declared >= enclosingStart ? function.defined - declared : -1);
+        }
+    }
+
+    private void resolveFunctionScope(FunctionScope scope, Stmt.Function function, List<Set<String>> extraScopes) {
+        functions.add(scope);
+        scopes.addAll(extraScopes);
+        if (function.isParsed()) {
+            resolveScope(function.parameters, function.body());
+        } else {
+            Set<String> enclosingLocals = new HashSet<>();
+            for (Set<String> enclosing : scopes) enclosingLocals.addAll(enclosing);
+            function.lazyBody().enclosingLocals = enclosingLocals;
+            for (FunctionScope enclosing : functions) enclosing.capturesEverything = true;
+        }
+        for (int i = 0; i < extraScopes.size(); i++) scopes.remove(scopes.size() - 1);
+        functions.remove(functions.size() - 1);
+        // Only closures over the whole chain can hold on to a call's environment.
+        if (scope.capturesEverything) return;
+        function.localFrames = true;
+        function.captures = scope.captures.keySet().toArray(new String[0]);
+        function.captureDistances = scope.captures.values().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Override
+    public Void visitUnary(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitBinary(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitGrouping(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitTernary(Expr.Ternary expr) {
+        resolve(expr.left);
+        resolve(expr.mid);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariable(Expr.Variable variable) {
+        variable.global = isGlobal(variable.identifier.lexeme);
+        if (!variable.global) use(variable.identifier.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignment(Expr.Assign assign) {
+        assign.global = isGlobal(assign.var.lexeme);
+        if (!assign.global) use(assign.var.lexeme);
+        resolve(assign.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalOperator(Expr.Logical logical) {
+        resolve(logical.left);
+        resolve(logical.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call call) {
+        resolve(call.callee);
+        for (Expr arg : call.args) resolve(arg);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get get) {
+        resolve(get.object);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set set) {
+        resolve(set.object);
+        resolve(set.value);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This thisExpr) {
+        use("this");
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super superExpr) {
+        use("super");
+        use("this");
+        return null;
+    }
+
+    @Override
+    public Void visitFusedBinary(Expr.FusedBinary fused) {
+        resolve(fused.original);
+        return null;
+    }
+
+    @Override
+    public Void visitCompoundAssign(Expr.CompoundAssign compound) {
+        resolve(compound.original);
+        return null;
+    }
+
+    @Override
+    public Void visitProbe(Expr.Probe probe) {
+        resolve(probe.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression expressionStatement) {
+        resolve(expressionStatement.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print printStatement) {
+        resolve(printStatement.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var var) {
+        resolve(var.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block block) {
+        resolveScope(List.of(), block.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If ifStmt) {
+        resolve(ifStmt.condition);
+        resolve(ifStmt.thenStatements);
+        resolve(ifStmt.elseStatements);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(Stmt.While whileStmt) {
+        resolve(whileStmt.condition);
+        resolve(whileStmt.whileBlock);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function function) {
+        resolveFunctionScope(new FunctionScope(scopes.size()), function, List.of());
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class classStmt) {
+        resolve(classStmt.superclass);
+        if (classStmt.superclass != null) scopes.add(Set.of("super"));
+        for (Stmt.Function method : classStmt.methods) {
+            // The scope binding `this` belongs to the method, so methods never capture it.
+            resolveFunctionScope(new FunctionScope(scopes.size()), method, List.of(Set.of("this")));
+        }
+        if (classStmt.superclass != null) scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import importStmt) {
+        // Modules are resolved on their own when they're loaded.
+        return null;
+    }
+
+    @Override
+    public Void visitProbeStmt(Stmt.Probe probe) {
+        resolve(probe.statement);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return returnStmt) {
+        resolve(returnStmt.returnExpression);
+        return null;
+    }
+}
@@ -0,0 +1,60 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps how much work a script may do and how much it may allocate, for
+ * running untrusted scripts alongside others in one JVM. Instructions are
+ * loop iterations and calls. Allocations are approximate byte counts for
+ * call and block frames, closures and concatenated strings, totalled over
+ * the whole run rather than what is live at once.
+ *
+ * <p>An interpreter and the coroutines and parallel tasks it starts share
+ * one budget. Each takes from it in slices and counts down its own slice,
+ * so charging is a subtraction from a field except once per slice. Slices
+ * shrink with what's left, so a small budget is still counted exactly, and
+ * a coroutine or task gives back what it didn't use when it finishes.
+ */
+final class ResourceBudget {
+    private static final long INSTRUCTION_SLICE = 10_000;
+    private static final long BYTE_SLICE = 1 << 20;
+    // A slice is at most this fraction of what's left.
+    private static final long SLICE_DIVISOR = 64;
+
+    private final AtomicLong instructions;
+    private final AtomicLong bytes;
+
+    ResourceBudget(long maxInstructions, long maxBytes) {
+        instructions = new AtomicLong(maxInstructions);
+        bytes = new AtomicLong(maxBytes);
+    }
+
+    static ResourceBudget unlimited() {
+        return new ResourceBudget(Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    long takeInstructions(int line) {
+        return take(instructions, INSTRUCTION_SLICE, line, "Instruction budget exceeded.");
+    }
+
+    long takeBytes(int line) {
+        return take(bytes, BYTE_SLICE, line, "Memory limit exceeded.");
+    }
+
+    /**
+     * Returns the unused rest of slices taken earlier.
+     */
+    void giveBack(long unusedInstructions, long unusedBytes) {
+        if (unusedInstructions > 0) instructions.addAndGet(unusedInstructions);
+        if (unusedBytes > 0) bytes.addAndGet(unusedBytes);
+    }
+
+    private static long take(AtomicLong left, long slice, int line, String message) {
+        while (true) {
+            long available = left.get();
+            if (available <= 0) throw new RuntimeError(line, message);
+            long granted = Math.max(1, Math.min(slice, available / SLICE_DIVISOR));
+            if (left.compareAndSet(available, available - granted)) return granted;
+        }
+    }
+}
@@ -1,15 +1,84 @@
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 public class RuntimeError extends RuntimeException {
+    // Longer traces show this many of their innermost and outermost frames.
+    private static final int TRACE_ENDS = 10;
+
     final Token token;
     private final String message;
+    // The callee and call-site line of each Lox call the error escaped from, outermost first.
+    private Object[] callees;
+    private int[] callLines;
 
     RuntimeError(Token token, String message) {
-        super(message);
+        // Errors are reported with their Lox trace, so capturing the JVM's would be wasted work.
+        super(message, null, false, false);
         this.token = token;
         this.message = message;
     }
 
+    /**
+     * For code that has the line of the offending token but not the token itself.
+     */
+    RuntimeError(int line, String message) {
+        this(new Token("", TokenType.IDENTIFIER, line, null), message);
+    }
+
+    boolean hasTrace() {
+        return callees != null;
+    }
+
+    /**
+     * Snapshots the first {@code depth} calls of the interpreter's call stack
+     * as the error leaves the innermost of them.
+     */
+    void recordTrace(Object[] callees, int[] callLines, int depth) {
+        this.callees = Arrays.copyOf(callees, depth);
+        this.callLines = Arrays.copyOf(callLines, depth);
+    }
+
+    /**
+     * Describes where each call in the trace was when the error happened,
+     * innermost first and in the form "[line 3] in f()", ending with the
+     * top-level script. Runs of the same frame, as in deep recursion, are
+     * collapsed. Empty if the error didn't escape a Lox call.
+     */
+    List<String> trace() {
+        List<String> frames = new ArrayList<>();
+        if (callees == null) return frames;
+        String previous = null;
+        int repeats = 0;
+        for (int i = callees.length - 1; i >= -1; i--) {
+            String frame = i < 0
+                    ? "[line " + callLines[0] + "] in script"
+                    : "[line " + (i == callees.length - 1 ? token.line : callLines[i + 1]) + "] in " + describe(callees[i]);
+            if (frame.equals(previous)) {
+                repeats++;
+                continue;
+            }
+            if (repeats > 0) frames.add("[previous frame repeated " + repeats + " more times]");
+            frames.add(frame);
+            previous = frame;
+            repeats = 0;
+        }
+        if (frames.size() <= 2 * TRACE_ENDS) return frames;
+        List<String> shortened = new ArrayList<>(frames.subList(0, TRACE_ENDS));
+        shortened.add("[... " + (frames.size() - 2 * TRACE_ENDS) + " more frames]");
+        shortened.addAll(frames.subList(frames.size() - TRACE_ENDS, frames.size()));
+        return shortened;
+    }
+
+    private static String describe(Object callee) {
+        if (callee instanceof LoxFunction function) return function.name() + "()";
+        if (callee instanceof LoxClass klass) return klass.name + "()";
+        if (callee instanceof NativeFunction function) return function.name + "()";
+        return callee.toString();
+    }
+
     @Override
     public String getMessage() {
         return message;
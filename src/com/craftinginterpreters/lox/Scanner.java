@@ -11,7 +11,12 @@ public class Scanner {
     private int current;
     private int start;
     private int line;
+    // Index of the first character on the current line, and the column the current lexeme starts at.
+    private int lineStart;
+    private int column;
     private final ArrayList<Token> tokens;
+    // Where errors go instead of being reported, when scanning a module.
+    private final List<String> errors;
     private static final HashMap<String, TokenType> reservedKeywords;
     static {
         reservedKeywords = new HashMap<>();
@@ -22,6 +27,7 @@ public class Scanner {
         reservedKeywords.put("for", FOR);
         reservedKeywords.put("fun", FUN);
         reservedKeywords.put("if", IF);
+        reservedKeywords.put("import", IMPORT);
         reservedKeywords.put("nil", NIL);
         reservedKeywords.put("or", OR);
         reservedKeywords.put("print", PRINT);
@@ -34,18 +40,28 @@ public class Scanner {
     }
 
     public Scanner(String source) {
+        this(source, null);
+    }
+
+    /**
+     * Scans source whose errors are collected in {@code errors}, when not
+     * null, rather than reported as errors in the script.
+     */
+    Scanner(String source, List<String> errors) {
         this.source = source;
         this.tokens = new ArrayList<>();
         this.line = 1;
+        this.errors = errors;
     }
 
     List<Token> scanTokens() {
         while (!isAtEnd()) {
             start = current;
+            column = start - lineStart + 1;
             scanToken();
         }
 
-        tokens.add(new Token("", TokenType.EOF, line, null));
+        tokens.add(new Token("", TokenType.EOF, line, current - lineStart + 1, null));
         return tokens;
     }
 
@@ -91,6 +107,7 @@ public class Scanner {
                 break;
             case '\n':
                 line++;
+                lineStart = current;
                 break;
             case '"': string(); break;
             default:
@@ -99,7 +116,7 @@ public class Scanner {
                 } else if (isAlphaOrUnderscore(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    error("Unexpected character.");
                     break;
                 }
         }
@@ -111,11 +128,14 @@ public class Scanner {
         while (!isAtEnd() && blockCounter != 0) {
             if (peek() == '*' && peekNext() == '/') blockCounter--;
             if (peek() == '/' && peekNext() == '*') blockCounter++;
-            if (peek() == '\n') line++;
+            if (peek() == '\n') {
+                line++;
+                lineStart = current + 1;
+            }
             current++;
         }
         if (isAtEnd() && blockCounter != 0) {
-            Lox.error(line, "Block comment not ended properly");
+            error("Block comment not ended properly");
             return;
         }
         current++; // Consume the last '/'.
@@ -137,7 +157,7 @@ public class Scanner {
 
     private void addToken(TokenType type, Object literal) {
         String lexeme = source.substring(start, current);
-        tokens.add(new Token(lexeme, type, line, literal));
+        tokens.add(new Token(lexeme, type, line, column, literal));
     }
 
     /**
@@ -158,6 +178,14 @@ public class Scanner {
         addToken(NUMBER, lit);
     }
 
+    private void error(String message) {
+        if (errors != null) {
+            errors.add("[line: " + line + "] Error: " + message);
+        } else {
+            Lox.error(line, message);
+        }
+    }
+
     private boolean isDigit(char current) {
         return current >= '0' && current <= '9';
     }
@@ -170,11 +198,14 @@ public class Scanner {
      */
     private void string() {
         while (!isAtEnd() && peek() != '"') {
-            if (source.charAt(current) == '\n') line++;
+            if (source.charAt(current) == '\n') {
+                line++;
+                lineStart = current + 1;
+            }
             current++;
         }
         if (isAtEnd()) {
-            Lox.error(line, "The string did not terminate properly");
+            error("The string did not terminate properly");
             return;
         }
 
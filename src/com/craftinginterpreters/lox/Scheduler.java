@@ -0,0 +1,77 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Coroutines share their globals, so only one thread runs Lox code at a time:
+ * whoever has the {@link #TURN}. A coroutine gives it up only while it waits
+ * (joining, channel operations, sleeping) or when it yields, which is what lets
+ * thousands of mostly-waiting coroutines interleave on virtual threads. Turns
+ * are handed out fairly so that a yielding coroutine goes to the back of the
+ * queue. Unlike a lock, a turn can be passed to another thread that carries
+ * on for the one holding it; see {@link #handOff}.
+ */
+class Scheduler {
+    private static final Semaphore TURN = new Semaphore(1, true);
+    // How many times the current thread has entered without exiting yet.
+    private static final ThreadLocal<int[]> ENTERED = ThreadLocal.withInitial(() -> new int[1]);
+
+    interface Wait<T> {
+        T run() throws InterruptedException;
+    }
+
+    static void enter() {
+        if (ENTERED.get()[0]++ == 0) TURN.acquireUninterruptibly();
+    }
+
+    static void exit() {
+        if (--ENTERED.get()[0] == 0) TURN.release();
+    }
+
+    /**
+     * Runs a blocking operation with the turn given up, so that other
+     * coroutines can make progress until it returns.
+     */
+    static <T> T await(Wait<T> wait) {
+        int[] entered = ENTERED.get();
+        int holds = entered[0];
+        if (holds > 0) {
+            entered[0] = 0;
+            TURN.release();
+        }
+        try {
+            return wait.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NativeError("Interrupted while waiting.");
+        } finally {
+            if (holds > 0) {
+                TURN.acquireUninterruptibly();
+                entered[0] = holds;
+            }
+        }
+    }
+
+    static void yieldToOthers() {
+        if (ENTERED.get()[0] > 0 && TURN.hasQueuedThreads()) {
+            await(() -> null);
+        }
+    }
+
+    /**
+     * Gives up the current thread's claim on the turn without letting anyone
+     * else have it, for a thread that will run on this one's behalf while it
+     * waits. Returns what {@link #takeOver} needs to claim it there, and back
+     * here afterwards.
+     */
+    static int handOff() {
+        int[] entered = ENTERED.get();
+        int holds = entered[0];
+        entered[0] = 0;
+        return holds;
+    }
+
+    static void takeOver(int holds) {
+        ENTERED.get()[0] = holds;
+    }
+}
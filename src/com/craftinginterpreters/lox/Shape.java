@@ -0,0 +1,47 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A hidden class: the layout shared by every instance of one class that got
+ * the same fields added in the same order. It maps each field name to a slot
+ * in {@link LoxInstance#fields}, and adding a field moves an instance along a
+ * transition to the next shape. Because a shape belongs to exactly one class,
+ * comparing shapes is enough for an inline cache to know both where a field
+ * lives and which method a name refers to.
+ */
+class Shape {
+    final LoxClass klass;
+    final int slotCount;
+    private final Map<String, Integer> slots;
+    private final Map<String, Shape> transitions = new ConcurrentHashMap<>();
+
+    private Shape(LoxClass klass, Map<String, Integer> slots) {
+        this.klass = klass;
+        this.slots = slots;
+        this.slotCount = slots.size();
+    }
+
+    static Shape root(LoxClass klass) {
+        return new Shape(klass, Map.of());
+    }
+
+    /**
+     * Returns the slot holding the field, or -1 if this shape doesn't have it.
+     */
+    int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    Shape withField(String name) {
+        return transitions.computeIfAbsent(name, field -> {
+            Map<String, Integer> extended = new HashMap<>(slots);
+            extended.put(field, slotCount);
+            klass.noteSlotCount(slotCount + 1);
+            return new Shape(klass, extended);
+        });
+    }
+}
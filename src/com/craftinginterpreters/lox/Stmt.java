@@ -14,8 +14,14 @@ public abstract class Stmt {
         public Void visitWhileStatement(While whileStmt);
         public Void visitFunctionStmt(Function function);
         public Void visitReturnStmt(Return returnStmt);
+        public Void visitClassStmt(Class classStmt);
+        public Void visitImportStmt(Import importStmt);
+        public Void visitProbeStmt(Probe probe);
     }
 
+    // The line the statement starts on.
+    int line;
+
     abstract <T> void accept(Visitor<T> visitor);
 
     public static class Expression extends Stmt {
@@ -90,10 +96,15 @@ public abstract class Stmt {
     }
 
     public static class While extends Stmt {
+        // The `while`, or the `for` it was desugared from.
+        final Token keyword;
         final Expr condition;
         final Stmt whileBlock;
+        // Iterations run, counted for profiles.
+        long iterations;
 
-        While(Expr condition, Stmt whileBlock) {
+        While(Token keyword, Expr condition, Stmt whileBlock) {
+            this.keyword = keyword;
             this.condition = condition;
             this.whileBlock = whileBlock;
         }
@@ -107,7 +118,17 @@ public abstract class Stmt {
     public static class Function extends Stmt {
         final Token fnName;
         final List<Token> parameters;
-        final List<Stmt> body;
+        private volatile List<Stmt> body;
+        // Set instead of body until a lazily parsed body is first needed.
+        private LazyBody lazyBody;
+        // The variables the function uses from enclosing scopes and how far
+        // out each is declared, see Environment.capture. Set by the Resolver;
+        // null if closures have to keep the whole environment they're made in.
+        String[] captures;
+        int[] captureDistances;
+        // Set by the Resolver if nothing the body creates can keep a call's
+        // environment alive once it returns, so calls can recycle it.
+        boolean localFrames;
 
         Function(Token fnName, List<Token> parameters, List<Stmt> body) {
             this.fnName = fnName;
@@ -115,6 +136,32 @@ public abstract class Stmt {
             this.body = body;
         }
 
+        Function(Token fnName, List<Token> parameters, LazyBody lazyBody) {
+            this.fnName = fnName;
+            this.parameters = parameters;
+            this.lazyBody = lazyBody;
+        }
+
+        boolean isParsed() {
+            return body != null;
+        }
+
+        LazyBody lazyBody() {
+            return lazyBody;
+        }
+
+        List<Stmt> body() {
+            List<Stmt> statements = body;
+            if (statements != null) return statements;
+            synchronized (this) {
+                if (body == null) {
+                    body = lazyBody.parse(parameters);
+                    lazyBody = null;
+                }
+                return body;
+            }
+        }
+
         @Override
         <T> void accept(Visitor<T> visitor) {
             visitor.visitFunctionStmt(this);
@@ -136,4 +183,56 @@ public abstract class Stmt {
         }
     }
 
+    public static class Class extends Stmt {
+        final Token name;
+        final Expr.Variable superclass;
+        final List<Function> methods;
+
+        Class(Token name, Expr.Variable superclass, List<Function> methods) {
+            this.name = name;
+            this.superclass = superclass;
+            this.methods = methods;
+        }
+
+        @Override
+        <T> void accept(Visitor<T> visitor) {
+            visitor.visitClassStmt(this);
+        }
+    }
+
+    public static class Import extends Stmt {
+        final Token keyword;
+        final Token path;
+
+        Import(Token keyword, Token path) {
+            this.keyword = keyword;
+            this.path = path;
+        }
+
+        @Override
+        <T> void accept(Visitor<T> visitor) {
+            visitor.visitImportStmt(this);
+        }
+    }
+
+    /**
+     * Reports executions of {@link #statement} to a listener. Built by
+     * {@link Instrumentation}; passes other than the interpreter look at
+     * {@link #statement}.
+     */
+    public static class Probe extends Stmt {
+        final Stmt statement;
+        final Instrumentation.Listener listener;
+
+        Probe(Stmt statement, Instrumentation.Listener listener) {
+            this.statement = statement;
+            this.listener = listener;
+            this.line = statement.line;
+        }
+
+        @Override
+        <T> void accept(Visitor<T> visitor) {
+            visitor.visitProbeStmt(this);
+        }
+    }
 }
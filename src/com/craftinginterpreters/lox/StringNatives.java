@@ -0,0 +1,68 @@
+package com.craftinginterpreters.lox;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * String helpers plus conversions between strings and numbers. Indices are
+ * zero-based and `substring` takes an exclusive end, like Java's.
+ */
+class StringNatives extends NativeModule {
+    private static final int LEN = 0;
+    private static final int SUBSTRING = 1;
+    private static final int INDEX_OF = 2;
+    private static final int PARSE_NUMBER = 3;
+    private static final int FORMAT_NUMBER = 4;
+
+    // Numbers as Lox writes them, digits with an optional fraction, plus a sign.
+    private static final Pattern NUMBER = Pattern.compile("-?[0-9]+(\\.[0-9]+)?");
+
+    @Override
+    void install(Environment globals) {
+        definePure(globals, "len", 1, LEN);
+        definePure(globals, "substring", 3, SUBSTRING);
+        definePure(globals, "indexOf", 2, INDEX_OF);
+        definePure(globals, "parseNumber", 1, PARSE_NUMBER);
+        definePure(globals, "formatNumber", 2, FORMAT_NUMBER);
+    }
+
+    @Override
+    Object call(int id, Interpreter interpreter, List<Object> args) {
+        return switch (id) {
+            case LEN -> (double) string(args, 0, "len").length();
+            case SUBSTRING -> substring(
+                    string(args, 0, "substring"),
+                    integer(args, 1, "substring"),
+                    integer(args, 2, "substring"));
+            case INDEX_OF -> (double) string(args, 0, "indexOf").indexOf(string(args, 1, "indexOf"));
+            case PARSE_NUMBER -> parseNumber(string(args, 0, "parseNumber"));
+            case FORMAT_NUMBER -> formatNumber(number(args, 0, "formatNumber"), integer(args, 1, "formatNumber"));
+            default -> throw new IllegalArgumentException("Unknown native " + id);
+        };
+    }
+
+    private static String substring(String string, int start, int end) {
+        if (start < 0 || end > string.length() || start > end) {
+            throw new NativeError("Substring range [" + start + ", " + end + ") is out of bounds.");
+        }
+        return string.substring(start, end);
+    }
+
+    /**
+     * Returns nil instead of failing so scripts can validate input with it.
+     * Only Lox's own number syntax is accepted, not Java's, so "1d", "0x10p0"
+     * and "NaN" aren't numbers.
+     */
+    private static Object parseNumber(String text) {
+        String number = text.strip();
+        return NUMBER.matcher(number).matches() ? Double.parseDouble(number) : null;
+    }
+
+    private static String formatNumber(double number, int decimals) {
+        if (decimals < 0) throw new NativeError("formatNumber expects a non-negative number of decimals.");
+        if (Double.isNaN(number) || Double.isInfinite(number)) return Interpreter.stringify(number);
+        return new BigDecimal(number).setScale(decimals, RoundingMode.HALF_EVEN).toPlainString();
+    }
+}
@@ -4,12 +4,20 @@ public class Token {
     final String lexeme;
     final TokenType type;
     final int line;
+    // Where on its line the token starts, counting from 1, or 0 for tokens
+    // made up after scanning, which have no place in the source.
+    final int column;
     final Object literal;
 
     public Token(String lexeme, TokenType type, int line, Object literal) {
+        this(lexeme, type, line, 0, literal);
+    }
+
+    public Token(String lexeme, TokenType type, int line, int column, Object literal) {
         this.lexeme = lexeme;
         this.type = type;
         this.line = line;
+        this.column = column;
         this.literal = literal;
     }
 
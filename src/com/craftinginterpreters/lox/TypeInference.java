@@ -0,0 +1,427 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Works out, without running anything, which expressions should always give
+ * numbers, and marks the binary operations whose operands both should as
+ * {@link Expr.Binary#numeric}. The interpreter does the arithmetic directly
+ * for those, and falls back to its usual checks when an operand turns out
+ * not to be a number after all, so the types found here are best guesses
+ * rather than guarantees:
+ *
+ * <ul>
+ * <li>A variable's type is that of all the values assigned to it anywhere,
+ * whatever order the assignments run in.</li>
+ * <li>A parameter used only as an operand of arithmetic and comparisons, or
+ * returned, is taken to be a number, though callers may pass it anything.</li>
+ * <li>Calling a function declared with `fun`, whose variable is never
+ * assigned, gives what all of its returns give.</li>
+ * </ul>
+ *
+ * Types depend on each other across functions, so the code is walked again
+ * until nothing changes, up to {@link #MAX_PASSES} times.
+ */
+class TypeInference implements Expr.Visitor<TypeInference.Type>, Stmt.Visitor<Void> {
+    private static final int MAX_PASSES = 8;
+
+    enum Type {
+        // Nothing known yet: no assignment or return has been seen.
+        NONE, NUMBER, STRING, BOOLEAN, NIL, UNKNOWN;
+
+        Type join(Type other) {
+            if (this == NONE || this == other) return other;
+            if (other == NONE) return this;
+            return UNKNOWN;
+        }
+    }
+
+    private static class Variable {
+        final boolean parameter;
+        Type assigned = Type.NONE;
+        // For parameters, set once one is used other than as an operand of arithmetic or a comparison.
+        boolean otherUses;
+        // For variables declared by `fun`, the function, and whether anything else is assigned to them.
+        Stmt.Function function;
+        boolean reassigned;
+
+        Variable(boolean parameter) {
+            this.parameter = parameter;
+        }
+
+        Type type() {
+            if (function != null) return Type.UNKNOWN;
+            if (parameter) return otherUses ? Type.UNKNOWN : Type.NUMBER.join(assigned);
+            return assigned;
+        }
+    }
+
+    // Globals are kept by name between passes, so code can see those declared after it.
+    private final Map<String, Variable> globals = new HashMap<>();
+    // Locals, by the statement or parameter token declaring them.
+    private final Map<Object, Variable> locals = new IdentityHashMap<>();
+    private final Map<Stmt.Function, Type> returns = new IdentityHashMap<>();
+    private final List<Map<String, Variable>> scopes = new ArrayList<>();
+    private Stmt.Function function;
+    private boolean changed;
+
+    static void infer(List<Stmt> statements) {
+        TypeInference inference = new TypeInference();
+        inference.run(() -> inference.walk(statements));
+    }
+
+    /**
+     * Infers types in a lazily parsed body, knowing nothing about the
+     * variables of the scopes around it.
+     */
+    static void inferFunction(List<Token> parameters, List<Stmt> body) {
+        TypeInference inference = new TypeInference();
+        inference.run(() -> {
+            inference.beginScope();
+            for (Token parameter : parameters) inference.declare(parameter, parameter.lexeme, true);
+            inference.walk(body);
+            inference.endScope();
+        });
+    }
+
+    private void run(Runnable pass) {
+        int passes = 0;
+        do {
+            changed = false;
+            pass.run();
+        } while (changed && ++passes < MAX_PASSES);
+    }
+
+    private void walk(List<Stmt> statements) {
+        for (Stmt statement : statements) walk(statement);
+    }
+
+    private void walk(Stmt statement) {
+        // Statements that failed to parse are left as nulls.
+        if (statement != null) statement.accept(this);
+    }
+
+    private Type infer(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private void beginScope() {
+        scopes.add(new HashMap<>());
+    }
+
+    private void endScope() {
+        scopes.remove(scopes.size() - 1);
+    }
+
+    private Variable declare(Object declaration, String name, boolean parameter) {
+        Variable variable;
+        if (scopes.isEmpty()) {
+            variable = globals.computeIfAbsent(name, key -> new Variable(false));
+        } else {
+            variable = locals.computeIfAbsent(declaration, key -> new Variable(parameter));
+            scopes.get(scopes.size() - 1).put(name, variable);
+        }
+        return variable;
+    }
+
+    private Variable lookup(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Variable variable = scopes.get(i).get(name);
+            if (variable != null) return variable;
+        }
+        return globals.get(name);
+    }
+
+    private void assign(Variable variable, Type type) {
+        if (variable.function != null && !variable.reassigned) {
+            variable.reassigned = true;
+            changed = true;
+        }
+        Type joined = variable.assigned.join(type);
+        if (joined != variable.assigned) {
+            variable.assigned = joined;
+            changed = true;
+        }
+    }
+
+    private void returned(Type type) {
+        if (function == null) return;
+        Type previous = returns.getOrDefault(function, Type.NONE);
+        Type joined = previous.join(type);
+        if (joined != previous) {
+            returns.put(function, joined);
+            changed = true;
+        }
+    }
+
+    /**
+     * Infers an operand of arithmetic or a comparison, or a returned value.
+     * Reading a variable here doesn't count against it being a number.
+     */
+    private Type operand(Expr expr) {
+        Expr inner = expr;
+        while (inner instanceof Expr.Grouping grouping) inner = grouping.expression;
+        if (!(inner instanceof Expr.Variable variable)) return infer(expr);
+        Variable declared = lookup(variable.identifier.lexeme);
+        return declared != null ? declared.type() : Type.UNKNOWN;
+    }
+
+    private void otherUse(Expr expr) {
+        while (expr instanceof Expr.Grouping grouping) expr = grouping.expression;
+        if (!(expr instanceof Expr.Variable variable)) return;
+        Variable declared = lookup(variable.identifier.lexeme);
+        if (declared != null && declared.parameter && !declared.otherUses) {
+            declared.otherUses = true;
+            changed = true;
+        }
+    }
+
+    /**
+     * Whether running the statement always ends in a return, so that the
+     * function can't fall off its end and return nil.
+     */
+    private static boolean alwaysReturns(Stmt statement) {
+        if (statement instanceof Stmt.Return) return true;
+        if (statement instanceof Stmt.Block block) return alwaysReturns(block.statements);
+        if (statement instanceof Stmt.If ifStmt) {
+            return ifStmt.elseStatements != null
+                    && alwaysReturns(ifStmt.thenStatements) && alwaysReturns(ifStmt.elseStatements);
+        }
+        return statement instanceof Stmt.Probe probe && alwaysReturns(probe.statement);
+    }
+
+    private static boolean alwaysReturns(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (alwaysReturns(statement)) return true;
+        }
+        return false;
+    }
+
+    private void walkFunction(Stmt.Function declaration) {
+        // Bodies that aren't parsed yet are inferred on their own when they are.
+        if (!declaration.isParsed()) return;
+        Stmt.Function enclosing = function;
+        function = declaration;
+        beginScope();
+        for (Token parameter : declaration.parameters) declare(parameter, parameter.lexeme, true);
+        List<Stmt> body = declaration.body();
+        walk(body);
+        if (!alwaysReturns(body)) returned(Type.NIL);
+        endScope();
+        function = enclosing;
+    }
+
+    @Override
+    public Type visitUnary(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.MINUS) {
+            operand(expr.right);
+            return Type.NUMBER;
+        }
+        infer(expr.right);
+        return Type.BOOLEAN;
+    }
+
+    @Override
+    public Type visitBinary(Expr.Binary expr) {
+        switch (expr.operator.type) {
+            case MINUS, STAR, SLASH, PLUS, LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> {
+                Type left = operand(expr.left);
+                Type right = operand(expr.right);
+                expr.numeric = left == Type.NUMBER && right == Type.NUMBER;
+                return switch (expr.operator.type) {
+                    case MINUS, STAR, SLASH -> Type.NUMBER;
+                    case PLUS -> {
+                        if (left == Type.STRING || right == Type.STRING) yield Type.STRING;
+                        if (left == Type.NONE || right == Type.NONE) yield Type.NONE;
+                        yield expr.numeric ? Type.NUMBER : Type.UNKNOWN;
+                    }
+                    default -> Type.BOOLEAN;
+                };
+            }
+            case EQUAL_EQUAL, BANG_EQUAL -> {
+                // Comparing a parameter with a number, like `n == 0`, is still a numeric use.
+                Type left = operand(expr.left);
+                Type right = operand(expr.right);
+                if (right != Type.NUMBER) otherUse(expr.left);
+                if (left != Type.NUMBER) otherUse(expr.right);
+                return Type.BOOLEAN;
+            }
+            default -> {
+                infer(expr.left);
+                return infer(expr.right);
+            }
+        }
+    }
+
+    @Override
+    public Type visitLiteral(Expr.Literal expr) {
+        Object value = expr.value;
+        if (value instanceof Double) return Type.NUMBER;
+        if (value instanceof String) return Type.STRING;
+        if (value instanceof Boolean) return Type.BOOLEAN;
+        return value == null ? Type.NIL : Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitGrouping(Expr.Grouping expr) {
+        return infer(expr.expression);
+    }
+
+    @Override
+    public Type visitTernary(Expr.Ternary expr) {
+        infer(expr.left);
+        return infer(expr.mid).join(infer(expr.right));
+    }
+
+    @Override
+    public Type visitVariable(Expr.Variable variable) {
+        otherUse(variable);
+        Variable declared = lookup(variable.identifier.lexeme);
+        return declared != null ? declared.type() : Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitAssignment(Expr.Assign assign) {
+        Type type = infer(assign.value);
+        Variable declared = lookup(assign.var.lexeme);
+        if (declared != null) assign(declared, type);
+        return type;
+    }
+
+    @Override
+    public Type visitLogicalOperator(Expr.Logical logical) {
+        return infer(logical.left).join(infer(logical.right));
+    }
+
+    @Override
+    public Type visitCallExpr(Expr.Call call) {
+        infer(call.callee);
+        for (Expr arg : call.args) infer(arg);
+        if (!(call.callee instanceof Expr.Variable callee)) return Type.UNKNOWN;
+        Variable declared = lookup(callee.identifier.lexeme);
+        if (declared == null || declared.function == null || declared.reassigned) return Type.UNKNOWN;
+        return returns.getOrDefault(declared.function, Type.NONE);
+    }
+
+    @Override
+    public Type visitGetExpr(Expr.Get get) {
+        infer(get.object);
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitSetExpr(Expr.Set set) {
+        infer(set.object);
+        return infer(set.value);
+    }
+
+    @Override
+    public Type visitThisExpr(Expr.This thisExpr) {
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitSuperExpr(Expr.Super superExpr) {
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitFusedBinary(Expr.FusedBinary fused) {
+        return infer(fused.original);
+    }
+
+    @Override
+    public Type visitCompoundAssign(Expr.CompoundAssign compound) {
+        return infer(compound.original);
+    }
+
+    @Override
+    public Type visitProbe(Expr.Probe probe) {
+        return infer(probe.expression);
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression expressionStatement) {
+        infer(expressionStatement.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print printStatement) {
+        infer(printStatement.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var var) {
+        Type type = var.initializer != null ? infer(var.initializer) : Type.NIL;
+        assign(declare(var, var.name.lexeme, false), type);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block block) {
+        beginScope();
+        walk(block.statements);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If ifStmt) {
+        infer(ifStmt.condition);
+        walk(ifStmt.thenStatements);
+        walk(ifStmt.elseStatements);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(Stmt.While whileStmt) {
+        infer(whileStmt.condition);
+        walk(whileStmt.whileBlock);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function declaration) {
+        Variable variable = declare(declaration, declaration.fnName.lexeme, false);
+        if (variable.function == null && !variable.reassigned) {
+            variable.function = declaration;
+        } else if (variable.function != declaration && !variable.reassigned) {
+            // Two functions declared under one global name.
+            variable.reassigned = true;
+            changed = true;
+        }
+        walkFunction(declaration);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return returnStmt) {
+        returned(returnStmt.returnExpression != null ? operand(returnStmt.returnExpression) : Type.NIL);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class classStmt) {
+        if (classStmt.superclass != null) infer(classStmt.superclass);
+        assign(declare(classStmt, classStmt.name.lexeme, false), Type.UNKNOWN);
+        for (Stmt.Function method : classStmt.methods) walkFunction(method);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import importStmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitProbeStmt(Stmt.Probe probe) {
+        walk(probe.statement);
+        return null;
+    }
+}